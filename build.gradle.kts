@@ -29,9 +29,22 @@ repositories {
     mavenCentral()
 }
 
+val jmhVersion = "1.37"
+
+sourceSets {
+    // JMH benchmarks, kept out of the published jar.
+    create("jmh") {
+        compileClasspath += sourceSets["main"].output
+        runtimeClasspath += sourceSets["main"].output
+    }
+}
+
 dependencies {
     // Use the JUnit 5 integration.
     testImplementation("org.junit.jupiter:junit-jupiter-engine:5.9.1")
+
+    "jmhImplementation"("org.openjdk.jmh:jmh-core:$jmhVersion")
+    "jmhAnnotationProcessor"("org.openjdk.jmh:jmh-generator-annprocess:$jmhVersion")
 }
 
 tasks.named<Test>("test") {
@@ -39,6 +52,20 @@ tasks.named<Test>("test") {
     useJUnitPlatform()
 }
 
+// Runs every benchmark, or those matching -PjmhInclude=<regex>, with the GC profiler for allocation rates.
+// Results are written to build/reports/jmh/results.json so runs can be compared.
+tasks.register<JavaExec>("jmh") {
+    group = "verification"
+    description = "Runs the JMH benchmarks."
+    classpath = sourceSets["jmh"].runtimeClasspath
+    mainClass.set("org.openjdk.jmh.Main")
+
+    val results = layout.buildDirectory.file("reports/jmh/results.json").get().asFile
+    args("-prof", "gc", "-rf", "json", "-rff", results.absolutePath)
+    if (project.hasProperty("jmhInclude")) args(project.property("jmhInclude").toString())
+    doFirst { results.parentFile.mkdirs() }
+}
+
 publishing {
     repositories {
         publications {
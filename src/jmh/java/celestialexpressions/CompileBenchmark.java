@@ -0,0 +1,53 @@
+package celestialexpressions;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompileBenchmark {
+    @Param({"ARITHMETIC", "TRIG", "VARIABLES", "NESTED", "FLAT_SUM"})
+    public Expressions.Shape shape;
+
+    private ExpressionContext context;
+    private String source;
+    private ArrayList<Token> tokens;
+
+    @Setup
+    public void setup() {
+        this.context = Expressions.context();
+        this.source = this.shape.source();
+        this.tokens = ExpressionTokenizer.tokenize(this.source);
+    }
+
+    @Benchmark
+    public IExpression<?> parse() {
+        return ExpressionParser.parse(this.tokens, this.context);
+    }
+
+    @Benchmark
+    public Expression compile() {
+        return ExpressionCompiler.compile(this.source, this.context);
+    }
+
+    @Benchmark
+    public Expression compileBytecode() {
+        return ExpressionCompiler.compile(this.source, this.context, new CompileOptions().withBackend(CompileOptions.Backend.BYTECODE));
+    }
+}
@@ -0,0 +1,90 @@
+package celestialexpressions;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Symbol resolution against 50 modules of 200 variables and 200 functions each.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContextLookupBenchmark {
+    private static final int MODULES = 50;
+    private static final int SYMBOLS = 200;
+
+    private ExpressionContext context;
+    private String[] variables;
+    private String[] functions;
+    private String source;
+    private int next;
+
+    @Setup
+    public void setup() {
+        ArrayList<Module> modules = new ArrayList<>();
+        for (int m = 0; m < MODULES; m++) {
+            ModuleBuilder builder = new ModuleBuilder("module" + name(m));
+            for (int s = 0; s < SYMBOLS; s++) {
+                builder.addVariable("var" + name(m) + "x" + name(s), () -> 1.0);
+                builder.addFunction("fun" + name(m) + "x" + name(s), Function.unary(x -> x, true));
+            }
+            modules.add(builder.build());
+        }
+        this.context = new ExpressionContext(modules);
+
+        Random random = new Random(42);
+        this.variables = new String[1024];
+        this.functions = new String[1024];
+        for (int i = 0; i < this.variables.length; i++) {
+            this.variables[i] = "var" + name(random.nextInt(MODULES)) + "x" + name(random.nextInt(SYMBOLS));
+            this.functions[i] = "fun" + name(random.nextInt(MODULES)) + "x" + name(random.nextInt(SYMBOLS));
+        }
+
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < 40; i++) {
+            if (i > 0) source.append(" + ");
+            source.append(this.functions[i]).append('(').append(this.variables[i]).append(')');
+        }
+        this.source = source.toString();
+    }
+
+    // Identifiers containing digits are always read as variables, so indices are spelled with letters.
+    private static String name(int index) {
+        StringBuilder builder = new StringBuilder();
+        do {
+            builder.append((char) ('a' + index % 26));
+            index /= 26;
+        } while (index > 0);
+        return builder.toString();
+    }
+
+    @Benchmark
+    public Expression getVariable() {
+        return this.context.getVariable(this.variables[this.next++ & 1023]);
+    }
+
+    @Benchmark
+    public Function getFunction() {
+        return this.context.getFunction(this.functions[this.next++ & 1023], 1);
+    }
+
+    @Benchmark
+    public Expression compile() {
+        return ExpressionCompiler.compile(this.source, this.context);
+    }
+}
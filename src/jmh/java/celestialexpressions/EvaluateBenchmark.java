@@ -0,0 +1,46 @@
+package celestialexpressions;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EvaluateBenchmark {
+    @Param({"ARITHMETIC", "TRIG", "VARIABLES", "NESTED", "FLAT_SUM"})
+    public Expressions.Shape shape;
+
+    @Param({"TREE", "BYTECODE", "POSTFIX"})
+    public CompileOptions.Backend backend;
+
+    private Expression expression;
+
+    @Setup
+    public void setup() {
+        this.expression = ExpressionCompiler.compile(this.shape.source(), Expressions.context(), new CompileOptions().withBackend(this.backend));
+    }
+
+    @Benchmark
+    public double evaluate() {
+        return this.expression.evaluate();
+    }
+
+    @Benchmark
+    public Double invoke() {
+        return this.expression.invoke();
+    }
+}
@@ -0,0 +1,58 @@
+package celestialexpressions;
+
+import java.util.ArrayList;
+
+/**
+ * Representative expressions shared by the benchmarks. Variables x, y and z read mutable fields so that nothing
+ * can be folded away at compile time.
+ */
+public final class Expressions {
+    static double x = 0.25;
+    static double y = 1.5;
+    static double z = -3.0;
+
+    private Expressions() {}
+
+    static ExpressionContext context() {
+        ModuleBuilder builder = new ModuleBuilder("bench");
+        builder.addVariable("x", () -> Expressions.x);
+        builder.addVariable("y", () -> Expressions.y);
+        builder.addVariable("z", () -> Expressions.z);
+        ArrayList<Module> modules = new ArrayList<>();
+        modules.add(builder.build());
+        return new ExpressionContext(modules);
+    }
+
+    public enum Shape {
+        ARITHMETIC("(x + 2) * (y - 3) / 4 + x * y - z / 2 + 7 * x"),
+        TRIG("sin(x * 90) * cos(y * 45) + tan(z) - sqrt(abs(sinr(x) * cosr(y)))"),
+        VARIABLES("x * y + y * z + z * x + x * x + y * y + z * z + x * y * z"),
+        NESTED(nested(24)),
+        FLAT_SUM(flatSum(200));
+
+        private final String source;
+
+        Shape(String source) {
+            this.source = source;
+        }
+
+        String source() {
+            return this.source;
+        }
+    }
+
+    private static String nested(int depth) {
+        StringBuilder builder = new StringBuilder("x");
+        for (int i = 0; i < depth; i++) {
+            builder.insert(0, i % 2 == 0 ? "(y + " : "(z * ");
+            builder.append(')');
+        }
+        return builder.toString();
+    }
+
+    private static String flatSum(int terms) {
+        StringBuilder builder = new StringBuilder("x");
+        for (int i = 1; i < terms; i++) builder.append(i % 3 == 0 ? " + y * " : " + x * ").append(i);
+        return builder.toString();
+    }
+}
@@ -0,0 +1,76 @@
+package celestialexpressions;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The noise module against the stacked sines that configs used to fake noise with, four octaves each.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NoiseBenchmark {
+    private static final String SINES = "sin(x*57)*0.5 + sin(y*113)*0.5 + sin(x*114)*0.25 + sin(y*226)*0.25 + " +
+            "sin(x*228)*0.125 + sin(y*452)*0.125 + sin(x*456)*0.0625 + sin(y*904)*0.0625";
+
+    @Param({"TREE", "BYTECODE"})
+    public CompileOptions.Backend backend;
+
+    private final double[] args = new double[2];
+    private Expression sines;
+    private Expression noise;
+    private Expression fbm;
+    private Expression worley;
+
+    @Setup
+    public void setup() {
+        ExpressionContext context = new ExpressionContext(new ArrayList<>(Collections.singletonList(Noise.createModule(42L))));
+        CompileOptions options = new CompileOptions().withBackend(this.backend);
+        this.sines = ExpressionCompiler.compile(SINES, context, options, "x", "y");
+        this.noise = ExpressionCompiler.compile("noise(x, y)", context, options, "x", "y");
+        this.fbm = ExpressionCompiler.compile("fbm(x, y, 4)", context, options, "x", "y");
+        this.worley = ExpressionCompiler.compile("worley(x, y)", context, options, "x", "y");
+    }
+
+    private double[] next() {
+        this.args[0] += 0.37;
+        this.args[1] += 0.11;
+        return this.args;
+    }
+
+    @Benchmark
+    public double sines() {
+        return this.sines.evaluate(this.next());
+    }
+
+    @Benchmark
+    public double noise() {
+        return this.noise.evaluate(this.next());
+    }
+
+    @Benchmark
+    public double fbm() {
+        return this.fbm.evaluate(this.next());
+    }
+
+    @Benchmark
+    public double worley() {
+        return this.worley.evaluate(this.next());
+    }
+}
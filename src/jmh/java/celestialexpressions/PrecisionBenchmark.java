@@ -0,0 +1,62 @@
+package celestialexpressions;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exact against fast precision on a vertex-style expression of trigonometry and small whole powers.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PrecisionBenchmark {
+    @Param({"EXACT", "FAST"})
+    public CompileOptions.Precision precision;
+
+    @Param({"TREE", "BYTECODE"})
+    public CompileOptions.Backend backend;
+
+    private final double[] args = new double[2];
+    private Expression trig;
+    private Expression powers;
+
+    @Setup
+    public void setup() {
+        CompileOptions options = new CompileOptions().withBackend(this.backend).withPrecision(this.precision);
+        ExpressionContext context = new ExpressionContext();
+        this.trig = ExpressionCompiler.compile("sin(x) * cos(y) + cosr(x / 57) * 0.5 + tan(y / 3)", context, options, "x", "y");
+        this.powers = ExpressionCompiler.compile("x^3 - 2 * y^2 + (x - y)^5 / 100 + x^-2", context, options, "x", "y");
+    }
+
+    private double[] next() {
+        this.args[0] += 7.3;
+        this.args[1] += 3.1;
+        if (this.args[0] > 1e5) this.args[0] = 0.5;
+        if (this.args[1] > 1e5) this.args[1] = 0.25;
+        return this.args;
+    }
+
+    @Benchmark
+    public double trig() {
+        return this.trig.evaluate(this.next());
+    }
+
+    @Benchmark
+    public double powers() {
+        return this.powers.evaluate(this.next());
+    }
+}
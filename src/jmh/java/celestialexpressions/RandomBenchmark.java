@@ -0,0 +1,61 @@
+package celestialexpressions;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Eight threads drawing from one shared expression. {@code mathRandom} is the shared {@link java.util.Random} that
+ * {@code random} used to read, for comparison; the per-thread sources should not slow down as threads are added.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+public class RandomBenchmark {
+    private Expression unseeded;
+    private Expression seeded;
+    private Expression range;
+
+    @Setup
+    public void setup() {
+        this.unseeded = ExpressionCompiler.compile("random", new ExpressionContext());
+        ExpressionContext context = new ExpressionContext(new ArrayList<>(), 42L);
+        this.seeded = ExpressionCompiler.compile("random", context);
+        this.range = ExpressionCompiler.compile("randomRange(-1, 1)", context);
+    }
+
+    @Benchmark
+    public double mathRandom() {
+        return Math.random();
+    }
+
+    @Benchmark
+    public double unseeded() {
+        return this.unseeded.evaluate();
+    }
+
+    @Benchmark
+    public double seeded() {
+        return this.seeded.evaluate();
+    }
+
+    @Benchmark
+    public double randomRange() {
+        return this.range.evaluate();
+    }
+}
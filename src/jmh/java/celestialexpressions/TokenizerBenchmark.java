@@ -0,0 +1,45 @@
+package celestialexpressions;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenizerBenchmark {
+    @Param({"ARITHMETIC", "TRIG", "VARIABLES", "NESTED", "FLAT_SUM"})
+    public Expressions.Shape shape;
+
+    private String source;
+
+    @Setup
+    public void setup() {
+        this.source = this.shape.source();
+    }
+
+    @Benchmark
+    public ArrayList<Token> tokenize() {
+        return ExpressionTokenizer.tokenize(this.source);
+    }
+
+    @Benchmark
+    @SuppressWarnings("deprecation")
+    public ArrayList<Token> tokenizeLegacy() {
+        return ExpressionTokenizer.identifyTokens(ExpressionTokenizer.splitTokens(ExpressionTokenizer.removeIrrelevantChars(this.source)));
+    }
+}
@@ -0,0 +1,344 @@
+package celestialexpressions;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Evaluates an expression for many inputs at once. Variables and parameters are bound by name to columns of a
+ * {@link Bindings}, and every operator runs as one loop over the whole column instead of once per element.
+ * Subtrees that cannot be split into columns, such as lazy or impure functions and string arguments, are evaluated
+ * element by element with their variables reading the current row. Compiled, incremental, grouped and profiled
+ * expressions are evaluated from the tree they wrap, so batch evaluations are not recorded by a profiler.
+ * <p>
+ * The column loops are plain counted loops that the JIT can vectorize on its own. The incubating
+ * {@code jdk.incubator.vector} API would need {@code --add-modules} for every application that uses the library.
+ * <p>
+ * An evaluator reuses its scratch columns between calls and must not be shared between threads.
+ */
+public final class BatchEvaluator {
+    private static final int ADD = 1;
+    private static final int SUB = 2;
+    private static final int MUL = 3;
+    private static final int DIV = 4;
+    private static final int POW = 5;
+    private static final int GTR = 6;
+    private static final int LSS = 7;
+    private static final int EQ = 8;
+    private static final int AND = 9;
+    private static final int OR = 10;
+
+    private final Expression expression;
+    private final Map<String, Integer> slots = new HashMap<>();
+    private final ArrayList<String> names = new ArrayList<>();
+    private final Set<String> parameters = new HashSet<>();
+    private final Map<Expression, Expression> fallbacks = new IdentityHashMap<>();
+    private final ArrayDeque<double[]> scratch = new ArrayDeque<>();
+    private double[][] columns;
+    private int size;
+    private int index;
+
+    public BatchEvaluator(Expression expression) {
+        this.expression = Dependencies.tree(expression);
+        this.prepare(this.expression);
+        this.columns = new double[this.names.size()][];
+    }
+
+    public static void evaluate(Expression expression, Bindings bindings, double[] out, int n) {
+        new BatchEvaluator(expression).evaluate(bindings, out, n);
+    }
+
+    /**
+     * Writes the value of the expression for rows {@code 0} to {@code n - 1} into {@code out}. Variables without a
+     * column are read from their supplier as usual, while every parameter must have a column.
+     */
+    public void evaluate(Bindings bindings, double[] out, int n) {
+        if (n < 0 || out.length < n) throw new IllegalArgumentException("Output must hold " + n + " values.");
+        for (int slot = 0; slot < this.columns.length; slot++) {
+            double[] column = bindings.columns.get(this.names.get(slot));
+            if (column == null && this.parameters.contains(this.names.get(slot))) {
+                throw new IllegalArgumentException("Parameter \"" + this.names.get(slot) + "\" is not bound.");
+            }
+            if (column != null && column.length < n) {
+                throw new IllegalArgumentException("Column \"" + this.names.get(slot) + "\" has fewer than " + n + " values.");
+            }
+            this.columns[slot] = column;
+        }
+        this.size = n;
+        try {
+            this.evaluate(this.expression, out);
+        } finally {
+            Arrays.fill(this.columns, null);
+        }
+    }
+
+    // Assigns a slot to every variable and parameter and builds the row-by-row copies of subtrees that are not evaluated by column.
+    private void prepare(Expression node) {
+        if (node instanceof Expression.Var) this.slot(((Expression.Var) node).getId());
+        else if (node instanceof Expression.Param) this.parameter((Expression.Param) node);
+        else if (!isColumnar(node)) this.fallbacks.put(node, this.rewrite(node));
+        else if (node instanceof Expression.UnaryOperator) this.prepare(((Expression.UnaryOperator) node).getExpression());
+        else if (node instanceof Expression.BinaryOperator) {
+            Expression.BinaryOperator operator = (Expression.BinaryOperator) node;
+            this.prepare(operator.getLHS());
+            this.prepare(operator.getRHS());
+        }
+        else if (node instanceof Expression.Fun) {
+            for (Expression arg : ((Expression.Fun) node).getArgs()) this.prepare(arg);
+        }
+    }
+
+    private int slot(String name) {
+        Integer slot = this.slots.get(name);
+        if (slot == null) {
+            slot = this.names.size();
+            this.slots.put(name, slot);
+            this.names.add(name);
+        }
+        return slot;
+    }
+
+    private int parameter(Expression.Param param) {
+        this.parameters.add(param.getName());
+        return this.slot(param.getName());
+    }
+
+    private Expression rewrite(Expression node) {
+        if (node instanceof Expression.Var) {
+            Expression.Var variable = (Expression.Var) node;
+            return new Cursor(this, this.slot(variable.getId()), variable);
+        }
+        if (node instanceof Expression.Param) {
+            return new Cursor(this, this.parameter((Expression.Param) node), node);
+        }
+        if (node instanceof Expression.UnaryOperator) {
+            Expression.UnaryOperator operator = (Expression.UnaryOperator) node;
+            return operator.copy(this.rewrite(operator.getExpression()));
+        }
+        if (node instanceof Expression.BinaryOperator) {
+            Expression.BinaryOperator operator = (Expression.BinaryOperator) node;
+            return operator.copy(this.rewrite(operator.getLHS()), this.rewrite(operator.getRHS()));
+        }
+        if (node instanceof Expression.Fun) {
+            Expression.Fun function = (Expression.Fun) node;
+            ArrayList<IExpression<?>> params = new ArrayList<>(function.getParams().size());
+            for (IExpression<?> param : function.getParams()) {
+                params.add(param instanceof Expression ? this.rewrite((Expression) param) : param);
+            }
+            return new Expression.Fun(function.getName(), function.getFunction(), params);
+        }
+        return node;
+    }
+
+    private static boolean isColumnar(Expression node) {
+        Class<?> type = node.getClass();
+        if (type == Expression.Const.class || type == Expression.Var.class || type == Expression.Param.class || type == Expression.Negate.class) return true;
+        // Evaluating the right-hand side for every row is only allowed when skipping it could not be observed.
+        if (type == Expression.And.class || type == Expression.Or.class) return isPure(((Expression.BinaryOperator) node).getRHS());
+        if (opcode(node) != 0) return true;
+        if (type == Expression.Fun.class) {
+            Expression.Fun function = (Expression.Fun) node;
+            Function.Kind kind = function.getFunction().kind;
+            return function.getArgs() != null && function.getFunction().isPure() &&
+                   kind != Function.Kind.LIST && kind != Function.Kind.LAZY;
+        }
+        return false;
+    }
+
+    private static boolean isPure(Expression node) {
+        if (node instanceof Expression.Const) return true;
+        if (node instanceof Expression.Var) return ((Expression.Var) node).isPure();
+        if (node instanceof Expression.Param) return true;
+        if (node instanceof Expression.UnaryOperator) return isPure(((Expression.UnaryOperator) node).getExpression());
+        if (node instanceof Expression.BinaryOperator) {
+            Expression.BinaryOperator operator = (Expression.BinaryOperator) node;
+            return isPure(operator.getLHS()) && isPure(operator.getRHS());
+        }
+        if (node instanceof Expression.Fun) {
+            Expression.Fun function = (Expression.Fun) node;
+            if (!function.getFunction().isPure()) return false;
+            for (IExpression<?> param : function.getParams()) {
+                if (param instanceof Expression && !isPure((Expression) param)) return false;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static int opcode(Expression node) {
+        Class<?> type = node.getClass();
+        if (type == Expression.Add.class) return ADD;
+        if (type == Expression.Sub.class) return SUB;
+        if (type == Expression.Mul.class) return MUL;
+        if (type == Expression.Div.class) return DIV;
+        if (type == Expression.Pow.class) return POW;
+        if (type == Expression.Gtr.class) return GTR;
+        if (type == Expression.Lss.class) return LSS;
+        if (type == Expression.Eq.class) return EQ;
+        if (type == Expression.And.class) return AND;
+        if (type == Expression.Or.class) return OR;
+        return 0;
+    }
+
+    private void evaluate(Expression node, double[] out) {
+        int n = this.size;
+        Expression fallback = this.fallbacks.get(node);
+        if (fallback != null) {
+            for (this.index = 0; this.index < n; this.index++) out[this.index] = fallback.evaluate();
+            return;
+        }
+
+        // Long flat sums and products are left-deep, so the left spine is walked iteratively instead of recursively.
+        ArrayDeque<Expression.BinaryOperator> spine = new ArrayDeque<>();
+        while (opcode(node) != 0 && !this.fallbacks.containsKey(node)) {
+            spine.push((Expression.BinaryOperator) node);
+            node = ((Expression.BinaryOperator) node).getLHS();
+        }
+        if (spine.isEmpty()) this.evaluateLeaf(node, out);
+        else this.evaluate(node, out);
+        while (!spine.isEmpty()) {
+            Expression.BinaryOperator operator = spine.pop();
+            double[] rhs = this.operand(operator.getRHS());
+            apply(opcode(operator), out, rhs, n);
+            this.release(rhs);
+        }
+    }
+
+    private void evaluateLeaf(Expression node, double[] out) {
+        int n = this.size;
+        if (node instanceof Expression.Const) {
+            Arrays.fill(out, 0, n, ((Expression.Const) node).getConstant());
+        } else if (node instanceof Expression.Var) {
+            Expression.Var variable = (Expression.Var) node;
+            double[] column = this.columns[this.slots.get(variable.getId())];
+            if (column != null) System.arraycopy(column, 0, out, 0, n);
+            else for (int i = 0; i < n; i++) out[i] = variable.evaluate();
+        } else if (node instanceof Expression.Param) {
+            System.arraycopy(this.columns[this.slots.get(((Expression.Param) node).getName())], 0, out, 0, n);
+        } else if (node instanceof Expression.Negate) {
+            this.evaluate(((Expression.Negate) node).getExpression(), out);
+            for (int i = 0; i < n; i++) out[i] = -out[i];
+        } else {
+            this.evaluateFunction((Expression.Fun) node, out);
+        }
+    }
+
+    private void evaluateFunction(Expression.Fun node, double[] out) {
+        int n = this.size;
+        Function function = node.getFunction();
+        Expression[] args = node.getArgs();
+        double[][] values = new double[args.length][];
+        for (int a = 0; a < args.length; a++) values[a] = this.operand(args[a]);
+        switch (function.kind) {
+            case UNARY: {
+                double[] x = values[0];
+                for (int i = 0; i < n; i++) out[i] = function.unary.applyAsDouble(x[i]);
+                break;
+            }
+            case BINARY: {
+                double[] x = values[0];
+                double[] y = values[1];
+                for (int i = 0; i < n; i++) out[i] = function.binary.applyAsDouble(x[i], y[i]);
+                break;
+            }
+            case TERNARY: {
+                double[] x = values[0];
+                double[] y = values[1];
+                double[] z = values[2];
+                for (int i = 0; i < n; i++) out[i] = function.ternary.invoke(x[i], y[i], z[i]);
+                break;
+            }
+            case QUATERNARY: {
+                double[] x = values[0];
+                double[] y = values[1];
+                double[] z = values[2];
+                double[] w = values[3];
+                for (int i = 0; i < n; i++) out[i] = function.quaternary.invoke(x[i], y[i], z[i], w[i]);
+                break;
+            }
+            default: {
+                double[] row = new double[args.length];
+                for (int i = 0; i < n; i++) {
+                    for (int a = 0; a < row.length; a++) row[a] = values[a][i];
+                    out[i] = function.varargs.invoke(row);
+                }
+            }
+        }
+        for (double[] value : values) this.release(value);
+    }
+
+    // Bound variables are read straight from their column, anything else is evaluated into a scratch column.
+    private double[] operand(Expression node) {
+        if (node instanceof Expression.Var) {
+            double[] column = this.columns[this.slots.get(((Expression.Var) node).getId())];
+            if (column != null) return column;
+        }
+        if (node instanceof Expression.Param) return this.columns[this.slots.get(((Expression.Param) node).getName())];
+        double[] out = this.scratch.isEmpty() ? null : this.scratch.pop();
+        if (out == null || out.length < this.size) out = new double[this.size];
+        this.evaluate(node, out);
+        return out;
+    }
+
+    private void release(double[] column) {
+        for (double[] bound : this.columns) {
+            if (bound == column) return;
+        }
+        this.scratch.push(column);
+    }
+
+    private static void apply(int opcode, double[] out, double[] rhs, int n) {
+        switch (opcode) {
+            case ADD: for (int i = 0; i < n; i++) out[i] = out[i] + rhs[i]; break;
+            case SUB: for (int i = 0; i < n; i++) out[i] = out[i] - rhs[i]; break;
+            case MUL: for (int i = 0; i < n; i++) out[i] = out[i] * rhs[i]; break;
+            case DIV: for (int i = 0; i < n; i++) out[i] = out[i] / rhs[i]; break;
+            case POW: for (int i = 0; i < n; i++) out[i] = Math.pow(out[i], rhs[i]); break;
+            case GTR: for (int i = 0; i < n; i++) out[i] = out[i] > rhs[i] ? 1.0 : 0.0; break;
+            case LSS: for (int i = 0; i < n; i++) out[i] = out[i] < rhs[i] ? 1.0 : 0.0; break;
+            case EQ: for (int i = 0; i < n; i++) out[i] = Double.doubleToLongBits(out[i]) == Double.doubleToLongBits(rhs[i]) ? 1.0 : 0.0; break;
+            case AND: for (int i = 0; i < n; i++) out[i] = out[i] == 1.0 && rhs[i] == 1.0 ? 1.0 : 0.0; break;
+            default: for (int i = 0; i < n; i++) out[i] = out[i] == 1.0 || rhs[i] == 1.0 ? 1.0 : 0.0;
+        }
+    }
+
+    /**
+     * Columns of input values, keyed by variable or parameter name as written in the expression.
+     */
+    public static final class Bindings {
+        private final Map<String, double[]> columns = new HashMap<>();
+
+        public Bindings bind(String name, double[] column) {
+            this.columns.put(name, column);
+            return this;
+        }
+    }
+
+    // Reads the current row of a bound variable or parameter inside a subtree that is evaluated row by row.
+    private static final class Cursor implements Expression {
+        private final BatchEvaluator evaluator;
+        private final int slot;
+        private final Expression variable;
+
+        private Cursor(BatchEvaluator evaluator, int slot, Expression variable) {
+            this.evaluator = evaluator;
+            this.slot = slot;
+            this.variable = variable;
+        }
+
+        public double evaluate() {
+            double[] column = this.evaluator.columns[this.slot];
+            if (column != null) return column[this.evaluator.index];
+            return this.variable.evaluate();
+        }
+
+        public String toString() {
+            return this.variable.toString();
+        }
+    }
+}
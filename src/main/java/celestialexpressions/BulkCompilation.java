@@ -0,0 +1,39 @@
+package celestialexpressions;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * The outcome of {@link ExpressionCompiler#compileAll}: the compiled expressions and the exception of every entry that
+ * failed, both keyed like the input and in input order.
+ */
+public final class BulkCompilation {
+    private final Map<String, Expression> expressions;
+    private final Map<String, RuntimeException> failures;
+
+    BulkCompilation(Map<String, Expression> expressions, Map<String, RuntimeException> failures) {
+        this.expressions = Collections.unmodifiableMap(expressions);
+        this.failures = Collections.unmodifiableMap(failures);
+    }
+
+    public Map<String, Expression> getExpressions() {
+        return this.expressions;
+    }
+
+    public Map<String, RuntimeException> getFailures() {
+        return this.failures;
+    }
+
+    public boolean hasFailures() {
+        return !this.failures.isEmpty();
+    }
+
+    public Expression getExpression(String key) {
+        return this.expressions.get(key);
+    }
+
+    @Override
+    public String toString() {
+        return "BulkCompilation(compiled=" + this.expressions.size() + ", failed=" + this.failures.size() + ')';
+    }
+}
@@ -0,0 +1,251 @@
+package celestialexpressions;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Turns a finished expression tree into a hidden class. Constants, operators and {@link Math} calls are emitted
+ * inline; variable suppliers and any node the compiler does not know are bound as fields and called through
+ * {@link Expression#evaluate()}.
+ */
+final class BytecodeCompiler {
+    private static final String NAME = "celestialexpressions/GeneratedExpression";
+    private static final String BASE = "celestialexpressions/BytecodeExpression";
+    private static final String EXPRESSION = "celestialexpressions/Expression";
+    private static final String EXPRESSION_TYPE = "L" + EXPRESSION + ";";
+    private static final String UNARY = "java/util/function/DoubleUnaryOperator";
+    private static final String BINARY = "java/util/function/DoubleBinaryOperator";
+    private static final String TERNARY = "celestialexpressions/Function$TernaryExecutor";
+    private static final String QUATERNARY = "celestialexpressions/Function$QuaternaryExecutor";
+
+    private static final int DADD = 0x63;
+    private static final int DSUB = 0x67;
+    private static final int DMUL = 0x6B;
+    private static final int DDIV = 0x6F;
+    private static final int IFEQ = 0x99;
+    private static final int IFNE = 0x9A;
+    private static final int IFGE = 0x9C;
+    private static final int IFLE = 0x9E;
+    private static final int GOTO = 0xA7;
+    private static final int POW = -1;
+    private static final int MAX_METHOD_SIZE = 8000;
+
+    private final ClassFileWriter writer = new ClassFileWriter(NAME, BASE);
+    private final ClassFileWriter.MethodWriter method;
+    private final List<Object> bindings = new ArrayList<>();
+    private final List<String> bindingTypes = new ArrayList<>();
+    private final Map<Object, Integer> bindingIndex = new IdentityHashMap<>();
+    // Parameterized expressions implement evaluate(double[]) instead, with the arguments in local 1.
+    private final boolean parameterized;
+
+    private BytecodeCompiler(boolean parameterized) {
+        this.parameterized = parameterized;
+        int thisType = ClassFileWriter.objectType(this.writer.thisClass());
+        this.method = parameterized
+                ? this.writer.addMethod(ClassFileWriter.ACC_PUBLIC | ClassFileWriter.ACC_FINAL, "evaluate", "([D)D",
+                        thisType, ClassFileWriter.objectType(this.writer.classRef("[D")))
+                : this.writer.addMethod(ClassFileWriter.ACC_PUBLIC | ClassFileWriter.ACC_FINAL, "evaluate", "()D", thisType);
+    }
+
+    static Expression compile(Expression tree) {
+        if (tree instanceof BytecodeExpression) return tree;
+        try {
+            return new BytecodeCompiler(Expression.Param.appearsIn(tree)).generate(tree);
+        } catch (ClassFileWriter.ClassTooLargeException e) {
+            return tree;
+        }
+    }
+
+    private Expression generate(Expression tree) {
+        this.emit(tree);
+        this.method.dreturn();
+        // HotSpot never JIT-compiles methods above this size, so such a class would be slower than the tree.
+        if (this.method.position() > MAX_METHOD_SIZE) return tree;
+        this.emitConstructor();
+        byte[] bytes = this.writer.toByteArray();
+
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+            MethodHandle constructor = lookup.findConstructor(lookup.lookupClass(),
+                    MethodType.methodType(void.class, Expression.class, Object[].class));
+            return (Expression) constructor.invoke(tree, this.bindings.toArray());
+        } catch (Throwable e) {
+            throw new IllegalStateException("Failed to define compiled expression class.", e);
+        }
+    }
+
+    private void emitConstructor() {
+        int objectType = ClassFileWriter.objectType(this.writer.classRef("java/lang/Object"));
+        ClassFileWriter.MethodWriter constructor = this.writer.addMethod(ClassFileWriter.ACC_PUBLIC, "<init>",
+                "(" + EXPRESSION_TYPE + "[Ljava/lang/Object;)V",
+                ClassFileWriter.objectType(this.writer.thisClass()),
+                ClassFileWriter.objectType(this.writer.classRef(EXPRESSION)),
+                ClassFileWriter.objectType(this.writer.classRef("[Ljava/lang/Object;")));
+        constructor.aload(0);
+        constructor.aload(1);
+        constructor.invokespecial(BASE, "<init>", "(" + EXPRESSION_TYPE + ")V");
+        for (int i = 0; i < this.bindings.size(); i++) {
+            String type = this.bindingTypes.get(i);
+            constructor.aload(0);
+            constructor.aload(2);
+            constructor.iconst(i);
+            constructor.aaload(objectType);
+            constructor.checkcast(type);
+            constructor.putfield(NAME, "b" + i, "L" + type + ";");
+        }
+        constructor.vreturn();
+    }
+
+    private String bind(Object value, String type) {
+        Integer index = this.bindingIndex.get(value);
+        if (index == null) {
+            index = this.bindings.size();
+            this.bindings.add(value);
+            this.bindingTypes.add(type);
+            this.bindingIndex.put(value, index);
+            this.writer.addField(ClassFileWriter.ACC_PRIVATE | ClassFileWriter.ACC_FINAL, "b" + index, "L" + type + ";");
+        }
+        return "b" + index;
+    }
+
+    private void emitBound(Expression expression) {
+        String field = this.bind(expression, EXPRESSION);
+        this.method.aload(0);
+        this.method.getfield(NAME, field, EXPRESSION_TYPE);
+        if (this.parameterized) {
+            this.method.aload(1);
+            this.method.invokeinterface(EXPRESSION, "evaluate", "([D)D");
+        } else this.method.invokeinterface(EXPRESSION, "evaluate", "()D");
+    }
+
+    private void emit(Expression node) {
+        // Long flat sums and products are left-deep, so the left spine is walked iteratively instead of recursively.
+        ArrayDeque<Expression.BinaryOperator> spine = new ArrayDeque<>();
+        while (arithmeticOpcode(node) != 0) {
+            spine.push((Expression.BinaryOperator) node);
+            node = ((Expression.BinaryOperator) node).getLHS();
+        }
+        this.emitNode(node);
+        while (!spine.isEmpty()) {
+            Expression.BinaryOperator operator = spine.pop();
+            this.emit(operator.getRHS());
+            int opcode = arithmeticOpcode(operator);
+            if (opcode == POW) this.method.invokestatic("java/lang/Math", "pow", "(DD)D");
+            else this.method.doubleArithmetic(opcode);
+        }
+    }
+
+    private static int arithmeticOpcode(Expression node) {
+        Class<?> type = node.getClass();
+        if (type == Expression.Add.class) return DADD;
+        if (type == Expression.Sub.class) return DSUB;
+        if (type == Expression.Mul.class) return DMUL;
+        if (type == Expression.Div.class) return DDIV;
+        if (type == Expression.Pow.class) return POW;
+        return 0;
+    }
+
+    private void emitNode(Expression node) {
+        Class<?> type = node.getClass();
+        if (type == Expression.Const.class) this.method.dconst(((Expression.Const) node).constant);
+        else if (type == Expression.Var.class) this.emitBound(((Expression.Var) node).getSupplier());
+        else if (type == Expression.Param.class) {
+            this.method.aload(1);
+            this.method.iconst(((Expression.Param) node).getIndex());
+            this.method.daload();
+        }
+        else if (type == Expression.Negate.class) {
+            this.emit(((Expression.Negate) node).getExpression());
+            this.method.dneg();
+        }
+        else if (type == Expression.Gtr.class) {
+            this.emitOperands((Expression.BinaryOperator) node);
+            this.method.dcmpl();
+            this.emitBooleanResult(IFLE);
+        }
+        else if (type == Expression.Lss.class) {
+            this.emitOperands((Expression.BinaryOperator) node);
+            this.method.dcmpg();
+            this.emitBooleanResult(IFGE);
+        }
+        else if (type == Expression.Eq.class) {
+            Expression.BinaryOperator operator = (Expression.BinaryOperator) node;
+            this.emit(operator.getLHS());
+            this.method.invokestatic("java/lang/Double", "doubleToLongBits", "(D)J");
+            this.emit(operator.getRHS());
+            this.method.invokestatic("java/lang/Double", "doubleToLongBits", "(D)J");
+            this.method.lcmp();
+            this.emitBooleanResult(IFNE);
+        }
+        else if (type == Expression.And.class) this.emitShortCircuit((Expression.BinaryOperator) node, IFNE);
+        else if (type == Expression.Or.class) this.emitShortCircuit((Expression.BinaryOperator) node, IFEQ);
+        else if (type == Expression.Fun.class) this.emitFunction((Expression.Fun) node);
+        else this.emitBound(node);
+    }
+
+    // Executors of a fixed arity are called directly with their arguments computed inline.
+    private void emitFunction(Expression.Fun node) {
+        Function function = node.getFunction();
+        Expression[] args = node.getArgs();
+        Object executor;
+        String owner;
+        String method;
+        switch (args == null ? Function.Kind.LIST : function.kind) {
+            case UNARY: executor = function.unary; owner = UNARY; method = "applyAsDouble"; break;
+            case BINARY: executor = function.binary; owner = BINARY; method = "applyAsDouble"; break;
+            case TERNARY: executor = function.ternary; owner = TERNARY; method = "invoke"; break;
+            case QUATERNARY: executor = function.quaternary; owner = QUATERNARY; method = "invoke"; break;
+            default:
+                this.emitBound(node);
+                return;
+        }
+        String field = this.bind(executor, owner);
+        this.method.aload(0);
+        this.method.getfield(NAME, field, "L" + owner + ";");
+        for (Expression arg : args) this.emit(arg);
+        this.method.invokeinterface(owner, method, "(" + "DDDD".substring(0, args.length) + ")D");
+    }
+
+    private void emitOperands(Expression.BinaryOperator operator) {
+        this.emit(operator.getLHS());
+        this.emit(operator.getRHS());
+    }
+
+    // Consumes the int on the stack: jumps to the 0.0 result when the branch is taken, otherwise pushes 1.0.
+    private void emitBooleanResult(int falseBranch) {
+        ClassFileWriter.Label otherwise = new ClassFileWriter.Label();
+        ClassFileWriter.Label end = new ClassFileWriter.Label();
+        this.method.jump(falseBranch, otherwise);
+        this.method.dconst(1.0);
+        this.method.jump(GOTO, end);
+        this.method.mark(otherwise);
+        this.method.dconst(0.0);
+        this.method.mark(end);
+    }
+
+    // And jumps out on the first operand that is not 1.0, Or jumps out on the first operand that is.
+    private void emitShortCircuit(Expression.BinaryOperator operator, int exitBranch) {
+        double exitValue = exitBranch == IFEQ ? 1.0 : 0.0;
+        ClassFileWriter.Label exit = new ClassFileWriter.Label();
+        ClassFileWriter.Label end = new ClassFileWriter.Label();
+        this.emit(operator.getLHS());
+        this.method.dconst(1.0);
+        this.method.dcmpl();
+        this.method.jump(exitBranch, exit);
+        this.emit(operator.getRHS());
+        this.method.dconst(1.0);
+        this.method.dcmpl();
+        this.method.jump(exitBranch, exit);
+        this.method.dconst(1.0 - exitValue);
+        this.method.jump(GOTO, end);
+        this.method.mark(exit);
+        this.method.dconst(exitValue);
+        this.method.mark(end);
+    }
+}
@@ -0,0 +1,31 @@
+package celestialexpressions;
+
+/**
+ * Base class of the hidden classes generated by the {@link CompileOptions.Backend#BYTECODE} backend. The expression
+ * tree the class was generated from is kept so that it can still be inspected and printed.
+ */
+public abstract class BytecodeExpression implements Expression, CompiledForm {
+    private final Expression source;
+    private final boolean parameterized;
+
+    protected BytecodeExpression(Expression source) {
+        this.source = source;
+        this.parameterized = !Dependencies.of(source).getParameters().isEmpty();
+    }
+
+    /**
+     * Generated classes of parameterized expressions only implement {@link #evaluate(double[])}.
+     */
+    public double evaluate() {
+        return this.evaluate(this.parameterized ? Expression.Param.frame() : Expression.Param.currentFrame());
+    }
+
+    public final Expression getSource() {
+        return this.source;
+    }
+
+    @Override
+    public String toString() {
+        return this.source.toString();
+    }
+}
@@ -0,0 +1,452 @@
+package celestialexpressions;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal class file writer used by {@link BytecodeCompiler}. It only supports the handful of instructions the
+ * compiler emits, but tracks the operand stack so that max_stack and StackMapTable frames are always correct.
+ */
+final class ClassFileWriter {
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_PRIVATE = 0x0002;
+    static final int ACC_FINAL = 0x0010;
+    static final int ACC_SUPER = 0x0020;
+
+    static final int INT = 1;
+    static final int DOUBLE = 3;
+    static final int LONG = 4;
+    static final int OBJECT = 7;
+
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private final DataOutputStream poolOut = new DataOutputStream(this.pool);
+    private final Map<String, Integer> poolIndex = new HashMap<>();
+    private int poolSize = 1;
+
+    private final int thisClass;
+    private final int superClass;
+    private final List<byte[]> fields = new ArrayList<>();
+    private final List<MethodWriter> methods = new ArrayList<>();
+
+    ClassFileWriter(String name, String superName) {
+        this.thisClass = this.classRef(name);
+        this.superClass = this.classRef(superName);
+    }
+
+    int thisClass() {
+        return this.thisClass;
+    }
+
+    int utf8(String value) {
+        return this.constant("U" + value, 1, out -> {
+            out.writeByte(1);
+            out.writeUTF(value);
+        });
+    }
+
+    int classRef(String internalName) {
+        int name = this.utf8(internalName);
+        return this.constant("C" + internalName, 1, out -> {
+            out.writeByte(7);
+            out.writeShort(name);
+        });
+    }
+
+    int doubleConst(double value) {
+        long bits = Double.doubleToRawLongBits(value);
+        return this.constant("D" + bits, 2, out -> {
+            out.writeByte(6);
+            out.writeLong(bits);
+        });
+    }
+
+    int memberRef(int tag, String owner, String name, String descriptor) {
+        int ownerIndex = this.classRef(owner);
+        int nameIndex = this.utf8(name);
+        int descriptorIndex = this.utf8(descriptor);
+        int nameAndType = this.constant("N" + name + ' ' + descriptor, 1, out -> {
+            out.writeByte(12);
+            out.writeShort(nameIndex);
+            out.writeShort(descriptorIndex);
+        });
+        return this.constant("M" + tag + owner + '.' + name + descriptor, 1, out -> {
+            out.writeByte(tag);
+            out.writeShort(ownerIndex);
+            out.writeShort(nameAndType);
+        });
+    }
+
+    private int constant(String key, int slots, PoolEntry entry) {
+        Integer existing = this.poolIndex.get(key);
+        if (existing != null) return existing;
+        try {
+            entry.write(this.poolOut);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        int index = this.poolSize;
+        this.poolSize += slots;
+        if (this.poolSize > 0xFFFF) throw new ClassTooLargeException("Constant pool overflow.");
+        this.poolIndex.put(key, index);
+        return index;
+    }
+
+    void addField(int access, String name, String descriptor) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeShort(access);
+            out.writeShort(this.utf8(name));
+            out.writeShort(this.utf8(descriptor));
+            out.writeShort(0);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        this.fields.add(bytes.toByteArray());
+    }
+
+    MethodWriter addMethod(int access, String name, String descriptor, int... locals) {
+        MethodWriter method = new MethodWriter(access, name, descriptor, locals);
+        this.methods.add(method);
+        return method;
+    }
+
+    byte[] toByteArray() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            // Method bodies may still add constants, so they are serialized before the pool.
+            List<byte[]> methodBytes = new ArrayList<>();
+            for (MethodWriter method : this.methods) methodBytes.add(method.toByteArray());
+
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(52);
+            out.writeShort(this.poolSize);
+            this.pool.writeTo(out);
+            out.writeShort(ACC_FINAL | ACC_SUPER);
+            out.writeShort(this.thisClass);
+            out.writeShort(this.superClass);
+            out.writeShort(0);
+            out.writeShort(this.fields.size());
+            for (byte[] field : this.fields) out.write(field);
+            out.writeShort(methodBytes.size());
+            for (byte[] method : methodBytes) out.write(method);
+            out.writeShort(0);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    static int objectType(int classIndex) {
+        return (classIndex << 8) | OBJECT;
+    }
+
+    private static int slots(int type) {
+        return type == DOUBLE || type == LONG ? 2 : 1;
+    }
+
+    @FunctionalInterface
+    private interface PoolEntry {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    static final class Label {
+        int position = -1;
+        int[] stack;
+        final List<Integer> fixups = new ArrayList<>();
+    }
+
+    final class MethodWriter {
+        private final int access;
+        private final String name;
+        private final String descriptor;
+        private final int[] locals;
+        private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+        private final List<Label> labels = new ArrayList<>();
+        private int[] stack = new int[16];
+        private int stackSize;
+        private int stackSlots;
+        private int maxStack;
+        private boolean reachable = true;
+
+        private MethodWriter(int access, String name, String descriptor, int[] locals) {
+            this.access = access;
+            this.name = name;
+            this.descriptor = descriptor;
+            this.locals = locals;
+        }
+
+        int position() {
+            return this.code.size();
+        }
+
+        private void op(int opcode) {
+            this.code.write(opcode);
+        }
+
+        private void u2(int value) {
+            this.code.write(value >>> 8);
+            this.code.write(value);
+        }
+
+        private void push(int type) {
+            if (this.stackSize == this.stack.length) this.stack = Arrays.copyOf(this.stack, this.stackSize * 2);
+            this.stack[this.stackSize++] = type;
+            this.stackSlots += slots(type);
+            this.maxStack = Math.max(this.maxStack, this.stackSlots);
+        }
+
+        private void pop(int count) {
+            for (int i = 0; i < count; i++) this.stackSlots -= slots(this.stack[--this.stackSize]);
+        }
+
+        void aload(int slot) {
+            this.op(0x19);
+            this.code.write(slot);
+            this.push(this.locals[slot]);
+        }
+
+        void dconst(double value) {
+            if (Double.doubleToRawLongBits(value) == 0L) this.op(0x0E);
+            else if (value == 1.0) this.op(0x0F);
+            else {
+                this.op(0x14);
+                this.u2(ClassFileWriter.this.doubleConst(value));
+            }
+            this.push(DOUBLE);
+        }
+
+        void iconst(int value) {
+            if (value >= -1 && value <= 5) this.op(0x03 + value);
+            else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                this.op(0x10);
+                this.code.write(value);
+            } else {
+                this.op(0x11);
+                this.u2(value);
+            }
+            this.push(INT);
+        }
+
+        void doubleArithmetic(int opcode) {
+            this.op(opcode);
+            this.pop(2);
+            this.push(DOUBLE);
+        }
+
+        void dneg() {
+            this.op(0x77);
+            this.pop(1);
+            this.push(DOUBLE);
+        }
+
+        void dcmpl() {
+            this.op(0x97);
+            this.pop(2);
+            this.push(INT);
+        }
+
+        void dcmpg() {
+            this.op(0x98);
+            this.pop(2);
+            this.push(INT);
+        }
+
+        void lcmp() {
+            this.op(0x94);
+            this.pop(2);
+            this.push(INT);
+        }
+
+        void daload() {
+            this.op(0x31);
+            this.pop(2);
+            this.push(DOUBLE);
+        }
+
+        void aaload(int elementType) {
+            this.op(0x32);
+            this.pop(2);
+            this.push(elementType);
+        }
+
+        void checkcast(String internalName) {
+            int index = ClassFileWriter.this.classRef(internalName);
+            this.op(0xC0);
+            this.u2(index);
+            this.pop(1);
+            this.push(objectType(index));
+        }
+
+        void getfield(String owner, String name, String descriptor) {
+            this.op(0xB4);
+            this.u2(ClassFileWriter.this.memberRef(9, owner, name, descriptor));
+            this.pop(1);
+            this.push(this.type(descriptor, 0));
+        }
+
+        void putfield(String owner, String name, String descriptor) {
+            this.op(0xB5);
+            this.u2(ClassFileWriter.this.memberRef(9, owner, name, descriptor));
+            this.pop(2);
+        }
+
+        void invokestatic(String owner, String name, String descriptor) {
+            this.op(0xB8);
+            this.u2(ClassFileWriter.this.memberRef(10, owner, name, descriptor));
+            this.invoked(descriptor, false);
+        }
+
+        void invokespecial(String owner, String name, String descriptor) {
+            this.op(0xB7);
+            this.u2(ClassFileWriter.this.memberRef(10, owner, name, descriptor));
+            this.invoked(descriptor, true);
+        }
+
+        void invokeinterface(String owner, String name, String descriptor) {
+            this.op(0xB9);
+            this.u2(ClassFileWriter.this.memberRef(11, owner, name, descriptor));
+            int argumentSlots = 1;
+            for (int i = 1; descriptor.charAt(i) != ')'; i = this.skip(descriptor, i)) {
+                argumentSlots += slots(this.type(descriptor, i));
+            }
+            this.code.write(argumentSlots);
+            this.code.write(0);
+            this.invoked(descriptor, true);
+        }
+
+        private void invoked(String descriptor, boolean hasReceiver) {
+            int arguments = hasReceiver ? 1 : 0;
+            int i = 1;
+            while (descriptor.charAt(i) != ')') {
+                arguments++;
+                i = this.skip(descriptor, i);
+            }
+            this.pop(arguments);
+            if (descriptor.charAt(i + 1) != 'V') this.push(this.type(descriptor, i + 1));
+        }
+
+        private int skip(String descriptor, int i) {
+            while (descriptor.charAt(i) == '[') i++;
+            if (descriptor.charAt(i) == 'L') i = descriptor.indexOf(';', i);
+            return i + 1;
+        }
+
+        private int type(String descriptor, int i) {
+            switch (descriptor.charAt(i)) {
+                case 'D': return DOUBLE;
+                case 'J': return LONG;
+                case 'L': return objectType(ClassFileWriter.this.classRef(descriptor.substring(i + 1, descriptor.indexOf(';', i))));
+                case '[': return objectType(ClassFileWriter.this.classRef(descriptor.substring(i, this.skip(descriptor, i))));
+                default: return INT;
+            }
+        }
+
+        void jump(int opcode, Label target) {
+            int start = this.position();
+            this.op(opcode);
+            if (opcode != 0xA7) this.pop(1);
+            target.fixups.add(start);
+            if (target.stack == null) target.stack = Arrays.copyOf(this.stack, this.stackSize);
+            this.u2(0);
+            if (opcode == 0xA7) this.reachable = false;
+        }
+
+        void mark(Label label) {
+            label.position = this.position();
+            if (label.stack == null) label.stack = Arrays.copyOf(this.stack, this.stackSize);
+            if (!this.reachable) {
+                this.stackSize = 0;
+                this.stackSlots = 0;
+                for (int type : label.stack) this.push(type);
+                this.reachable = true;
+            }
+            this.labels.add(label);
+        }
+
+        void dreturn() {
+            this.op(0xAF);
+            this.pop(1);
+            this.reachable = false;
+        }
+
+        void vreturn() {
+            this.op(0xB1);
+            this.reachable = false;
+        }
+
+        private byte[] toByteArray() throws IOException {
+            byte[] body = this.code.toByteArray();
+            if (body.length > 0xFFFF) throw new ClassTooLargeException("Method " + this.name + " exceeds the maximum code size.");
+            for (Label label : this.labels) {
+                for (int start : label.fixups) {
+                    int offset = label.position - start;
+                    body[start + 1] = (byte) (offset >>> 8);
+                    body[start + 2] = (byte) offset;
+                }
+            }
+
+            ByteArrayOutputStream frames = new ByteArrayOutputStream();
+            DataOutputStream framesOut = new DataOutputStream(frames);
+            this.labels.sort((a, b) -> Integer.compare(a.position, b.position));
+            int previous = -1;
+            int frameCount = 0;
+            for (Label label : this.labels) {
+                if (label.position == previous) continue;
+                framesOut.writeByte(255);
+                framesOut.writeShort(label.position - previous - 1);
+                framesOut.writeShort(this.locals.length);
+                for (int type : this.locals) this.writeType(framesOut, type);
+                framesOut.writeShort(label.stack.length);
+                for (int type : label.stack) this.writeType(framesOut, type);
+                previous = label.position;
+                frameCount++;
+            }
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeShort(this.access);
+            out.writeShort(ClassFileWriter.this.utf8(this.name));
+            out.writeShort(ClassFileWriter.this.utf8(this.descriptor));
+            out.writeShort(1);
+            out.writeShort(ClassFileWriter.this.utf8("Code"));
+            int frameAttribute = frameCount == 0 ? 0 : 6 + 2 + frames.size();
+            out.writeInt(2 + 2 + 4 + body.length + 2 + 2 + frameAttribute);
+            out.writeShort(this.maxStack);
+            int maxLocals = 0;
+            for (int type : this.locals) maxLocals += slots(type);
+            out.writeShort(maxLocals);
+            out.writeInt(body.length);
+            out.write(body);
+            out.writeShort(0);
+            if (frameCount == 0) out.writeShort(0);
+            else {
+                out.writeShort(1);
+                out.writeShort(ClassFileWriter.this.utf8("StackMapTable"));
+                out.writeInt(2 + frames.size());
+                out.writeShort(frameCount);
+                frames.writeTo(out);
+            }
+            return bytes.toByteArray();
+        }
+
+        private void writeType(DataOutputStream out, int type) throws IOException {
+            out.writeByte(type & 0xFF);
+            if ((type & 0xFF) == OBJECT) out.writeShort(type >>> 8);
+        }
+    }
+
+    static class ClassTooLargeException extends RuntimeException {
+        public ClassTooLargeException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package celestialexpressions;
+
+
+public final class CompileOptions {
+    private Backend backend = Backend.TREE;
+    private EvaluationProfiler profiler;
+    private Precision precision = Precision.EXACT;
+
+    public CompileOptions withBackend(Backend backend) {
+        this.backend = backend;
+        return this;
+    }
+
+    public Backend getBackend() {
+        return this.backend;
+    }
+
+    /**
+     * Instruments compiled expressions so that their evaluations are recorded by {@code profiler}. Without a profiler,
+     * which is the default, no instrumentation is compiled in at all.
+     */
+    public CompileOptions withProfiler(EvaluationProfiler profiler) {
+        this.profiler = profiler;
+        return this;
+    }
+
+    public EvaluationProfiler getProfiler() {
+        return this.profiler;
+    }
+
+    /**
+     * Trades accuracy for speed in the standard module's trigonometry and in powers. See {@link Precision#FAST}.
+     */
+    public CompileOptions withPrecision(Precision precision) {
+        this.precision = precision;
+        return this;
+    }
+
+    public Precision getPrecision() {
+        return this.precision;
+    }
+
+    public enum Precision {
+        /** Evaluates every operator and function as written. */
+        EXACT,
+        /**
+         * Replaces the standard {@code sin}, {@code cos}, {@code tan} and their radian forms with the approximations of
+         * {@link FastMath}, and raises to constant whole exponents up to {@value FastMath#MAX_EXPONENT} by repeated
+         * multiplication. The error bounds are documented on {@link FastMath}.
+         */
+        FAST
+    }
+
+    public enum Backend {
+        /** Evaluates the expression by walking the node tree. */
+        TREE,
+        /** Compiles the expression tree into a hidden class with a single evaluate method. */
+        BYTECODE,
+        /** Lowers the expression tree into a flat array of instructions run over a stack of doubles. */
+        POSTFIX
+    }
+}
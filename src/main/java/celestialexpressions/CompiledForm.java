@@ -0,0 +1,8 @@
+package celestialexpressions;
+
+/**
+ * An expression a backend generated from a tree. Passes that work on trees look through it to the source.
+ */
+interface CompiledForm {
+    Expression getSource();
+}
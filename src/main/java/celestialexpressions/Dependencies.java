@@ -0,0 +1,115 @@
+package celestialexpressions;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * The variables, parameters and functions an expression reads, by the names they were referenced by and in the order
+ * they first appear. Variables and calls that were folded into constants at compile time are not included.
+ */
+public final class Dependencies {
+    private final Set<String> variables;
+    private final Set<String> parameters;
+    private final Set<String> functions;
+
+    private Dependencies(Set<String> variables, Set<String> parameters, Set<String> functions) {
+        this.variables = Collections.unmodifiableSet(variables);
+        this.parameters = Collections.unmodifiableSet(parameters);
+        this.functions = Collections.unmodifiableSet(functions);
+    }
+
+    public static Dependencies of(Expression expression) {
+        Set<String> variables = new LinkedHashSet<>();
+        Set<String> parameters = new LinkedHashSet<>();
+        Set<String> functions = new LinkedHashSet<>();
+        collect(expression, variables, parameters, functions);
+        return new Dependencies(variables, parameters, functions);
+    }
+
+    // Skips the compiled forms, incremental and grouped expressions, shared nodes and probes wrapped around a node.
+    static Expression unwrap(Expression node) {
+        while (true) {
+            if (node instanceof CompiledForm) node = ((CompiledForm) node).getSource();
+            else if (node instanceof IncrementalExpression) node = ((IncrementalExpression) node).getSource();
+            else if (node instanceof ExpressionGroup.Member) node = ((ExpressionGroup.Member) node).getSource();
+            else if (node instanceof EvaluationProfiler.Profiled) node = ((EvaluationProfiler.Profiled) node).getExpression();
+            else if (node instanceof SubexpressionEliminator.Shared) node = ((SubexpressionEliminator.Shared) node).getExpression();
+            else return node;
+        }
+    }
+
+    /**
+     * Returns the plain tree behind {@code expression}, with every wrapper {@link #unwrap} skips removed at any depth, for
+     * evaluators that walk the nodes themselves and would otherwise treat a wrapper as an opaque node.
+     */
+    static Expression tree(Expression node) {
+        node = unwrap(node);
+        if (node instanceof Expression.UnaryOperator) {
+            Expression.UnaryOperator operator = (Expression.UnaryOperator) node;
+            Expression operand = tree(operator.getExpression());
+            return operand == operator.getExpression() ? operator : operator.copy(operand);
+        }
+        if (node instanceof Expression.BinaryOperator) {
+            Expression.BinaryOperator operator = (Expression.BinaryOperator) node;
+            Expression lhs = tree(operator.getLHS());
+            Expression rhs = tree(operator.getRHS());
+            return lhs == operator.getLHS() && rhs == operator.getRHS() ? operator : operator.copy(lhs, rhs);
+        }
+        if (node instanceof Expression.Fun) {
+            Expression.Fun function = (Expression.Fun) node;
+            ArrayList<IExpression<?>> params = new ArrayList<>(function.getParams().size());
+            boolean changed = false;
+            for (IExpression<?> param : function.getParams()) {
+                IExpression<?> stripped = param instanceof Expression ? tree((Expression) param) : param;
+                changed |= stripped != param;
+                params.add(stripped);
+            }
+            return changed ? new Expression.Fun(function.getName(), function.getFunction(), params) : function;
+        }
+        return node;
+    }
+
+    private static void collect(Expression node, Set<String> variables, Set<String> parameters, Set<String> functions) {
+        node = unwrap(node);
+        if (node instanceof Expression.Var) {
+            variables.add(((Expression.Var) node).getId());
+        } else if (node instanceof Expression.Param) {
+            parameters.add(((Expression.Param) node).getName());
+        } else if (node instanceof Expression.UnaryOperator) {
+            collect(((Expression.UnaryOperator) node).getExpression(), variables, parameters, functions);
+        } else if (node instanceof Expression.BinaryOperator) {
+            Expression.BinaryOperator operator = (Expression.BinaryOperator) node;
+            collect(operator.getLHS(), variables, parameters, functions);
+            collect(operator.getRHS(), variables, parameters, functions);
+        } else if (node instanceof Expression.Fun) {
+            Expression.Fun function = (Expression.Fun) node;
+            if (function.getName() != null) functions.add(function.getName());
+            for (IExpression<?> param : function.getParams()) {
+                if (param instanceof Expression) collect((Expression) param, variables, parameters, functions);
+            }
+        }
+    }
+
+    public Set<String> getVariables() {
+        return this.variables;
+    }
+
+    public Set<String> getParameters() {
+        return this.parameters;
+    }
+
+    public Set<String> getFunctions() {
+        return this.functions;
+    }
+
+    public boolean isEmpty() {
+        return this.variables.isEmpty() && this.parameters.isEmpty() && this.functions.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "Dependencies{variables=" + this.variables + ", parameters=" + this.parameters + ", functions=" + this.functions + "}";
+    }
+}
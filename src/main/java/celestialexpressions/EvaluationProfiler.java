@@ -0,0 +1,213 @@
+package celestialexpressions;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Records how often and for how long compiled expressions, functions and variables are evaluated. Pass a profiler to
+ * {@link CompileOptions#withProfiler(EvaluationProfiler)} and every expression compiled with those options is
+ * instrumented: its root is recorded under its source, calls under the function name and variables under their name.
+ * Times are inclusive, so a call's time contains the time spent evaluating its arguments.
+ * <p>
+ * Every thread records into counters of its own, so evaluation never waits on a lock. {@link #snapshot()} sums the
+ * counters of all threads; values recorded while the snapshot is taken may or may not be included.
+ */
+public final class EvaluationProfiler implements EvaluationProfilerMXBean {
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final ConcurrentHashMap<String, Probe> probes = new ConcurrentHashMap<>();
+    private final boolean allocations;
+
+    public EvaluationProfiler() {
+        this(false);
+    }
+
+    /**
+     * @param allocations whether to also record the bytes allocated by each evaluation. This needs the JVM's thread
+     *                    allocation counter and makes every recorded evaluation noticeably slower.
+     */
+    public EvaluationProfiler(boolean allocations) {
+        this.allocations = allocations && allocationCounterAvailable();
+    }
+
+    private static boolean allocationCounterAvailable() {
+        if (!(THREADS instanceof com.sun.management.ThreadMXBean)) return false;
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) THREADS;
+        if (!threads.isThreadAllocatedMemorySupported()) return false;
+        if (!threads.isThreadAllocatedMemoryEnabled()) threads.setThreadAllocatedMemoryEnabled(true);
+        return true;
+    }
+
+    public boolean isTrackingAllocations() {
+        return this.allocations;
+    }
+
+    Expression instrument(String source, Expression expression) {
+        if (expression instanceof CompiledForm) expression = ((CompiledForm) expression).getSource();
+        return new Profiled(this.rewrite(expression), this.probe(Kind.EXPRESSION, source));
+    }
+
+    private Expression rewrite(Expression node) {
+        if (node instanceof Expression.Var) {
+            return new Profiled(node, this.probe(Kind.VARIABLE, ((Expression.Var) node).getId()));
+        }
+        if (node instanceof Expression.UnaryOperator) {
+            Expression.UnaryOperator operator = (Expression.UnaryOperator) node;
+            return operator.copy(this.rewrite(operator.getExpression()));
+        }
+        if (node instanceof Expression.BinaryOperator) {
+            Expression.BinaryOperator operator = (Expression.BinaryOperator) node;
+            return operator.copy(this.rewrite(operator.getLHS()), this.rewrite(operator.getRHS()));
+        }
+        if (node instanceof Expression.Fun) {
+            Expression.Fun function = (Expression.Fun) node;
+            ArrayList<IExpression<?>> params = new ArrayList<>(function.getParams().size());
+            for (IExpression<?> param : function.getParams()) {
+                params.add(param instanceof Expression ? this.rewrite((Expression) param) : param);
+            }
+            String name = function.getName() != null ? function.getName() : String.valueOf(function.getFunction());
+            return new Profiled(new Expression.Fun(function.getName(), function.getFunction(), params), this.probe(Kind.FUNCTION, name));
+        }
+        return node;
+    }
+
+    private Probe probe(Kind kind, String name) {
+        return this.probes.computeIfAbsent(kind.name() + ':' + name, key -> new Probe(kind, name));
+    }
+
+    public ProfileSnapshot snapshot() {
+        List<ProfileSnapshot.Entry> entries = new ArrayList<>(this.probes.size());
+        for (Probe probe : this.probes.values()) {
+            long count = 0L;
+            long nanos = 0L;
+            long bytes = 0L;
+            for (Counters counters : probe.all) {
+                count += counters.count;
+                nanos += counters.nanos;
+                bytes += counters.bytes;
+            }
+            entries.add(new ProfileSnapshot.Entry(probe.kind, probe.name, count, nanos, this.allocations ? bytes : -1L));
+        }
+        return new ProfileSnapshot(entries);
+    }
+
+    /**
+     * Clears every counter. Evaluations running on other threads while this is called may be partly kept.
+     */
+    public void reset() {
+        for (Probe probe : this.probes.values()) {
+            for (Counters counters : probe.all) counters.clear();
+        }
+    }
+
+    @Override
+    public List<ProfileSnapshot.Entry> getEntries() {
+        return this.snapshot().getEntries();
+    }
+
+    @Override
+    public long getTotalExpressionNanos() {
+        return this.snapshot().getTotalNanos(Kind.EXPRESSION);
+    }
+
+    /**
+     * Registers this profiler with the platform MBean server as
+     * {@code celestialexpressions:type=EvaluationProfiler,name=<name>} and returns the name it was registered under.
+     */
+    public ObjectName registerMBean(String name) {
+        try {
+            ObjectName objectName = new ObjectName("celestialexpressions:type=EvaluationProfiler,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            return objectName;
+        } catch (JMException e) {
+            throw new ProfilerRegistrationException("Could not register profiler \"" + name + "\": " + e.getMessage());
+        }
+    }
+
+    public enum Kind {
+        EXPRESSION,
+        FUNCTION,
+        VARIABLE
+    }
+
+    private static final class Probe {
+        private final Kind kind;
+        private final String name;
+        private final List<Counters> all = new CopyOnWriteArrayList<>();
+        private final ThreadLocal<Counters> local = ThreadLocal.withInitial(this::register);
+
+        private Probe(Kind kind, String name) {
+            this.kind = kind;
+            this.name = name;
+        }
+
+        private Counters register() {
+            Counters counters = new Counters();
+            this.all.add(counters);
+            return counters;
+        }
+    }
+
+    // Only written by the thread that owns it.
+    private static final class Counters {
+        private volatile long count;
+        private volatile long nanos;
+        private volatile long bytes;
+
+        private void clear() {
+            this.count = 0L;
+            this.nanos = 0L;
+            this.bytes = 0L;
+        }
+    }
+
+    final class Profiled implements Expression {
+        private final Expression expression;
+        private final Probe probe;
+
+        private Profiled(Expression expression, Probe probe) {
+            this.expression = expression;
+            this.probe = probe;
+        }
+
+        Expression getExpression() {
+            return this.expression;
+        }
+
+        public double evaluate() {
+            return this.evaluate(null);
+        }
+
+        // Args is null for evaluate() without arguments.
+        public double evaluate(double[] args) {
+            Counters counters = this.probe.local.get();
+            boolean allocations = EvaluationProfiler.this.allocations;
+            long bytes = allocations ? ((com.sun.management.ThreadMXBean) THREADS).getCurrentThreadAllocatedBytes() : 0L;
+            long start = System.nanoTime();
+            try {
+                return args != null ? this.expression.evaluate(args) : this.expression.evaluate();
+            } finally {
+                counters.nanos += System.nanoTime() - start;
+                counters.count++;
+                if (allocations) counters.bytes += ((com.sun.management.ThreadMXBean) THREADS).getCurrentThreadAllocatedBytes() - bytes;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return this.expression.toString();
+        }
+    }
+
+    public static class ProfilerRegistrationException extends RuntimeException {
+        public ProfilerRegistrationException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package celestialexpressions;
+
+import java.util.List;
+
+/**
+ * The management interface of {@link EvaluationProfiler}.
+ */
+public interface EvaluationProfilerMXBean {
+    List<ProfileSnapshot.Entry> getEntries();
+
+    long getTotalExpressionNanos();
+
+    void reset();
+}
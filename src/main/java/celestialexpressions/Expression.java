@@ -1,23 +1,51 @@
 package celestialexpressions;
 
 import java.util.ArrayList;
-import java.util.Objects;
 
 
+/**
+ * A compiled expression. Nodes never change after compilation, so one expression can be evaluated by several threads
+ * at once as long as the variables and functions it uses are thread-safe themselves.
+ */
 public interface Expression extends IExpression<Double> {
+    double evaluate();
+
+    /**
+     * Evaluates with {@code args} holding the values of the parameters declared at compile time, in declaration order.
+     * The array is only read, so one array can be reused for every call. Expressions without parameters ignore it.
+     */
+    default double evaluate(double[] args) {
+        return this.evaluate();
+    }
+
+    @Override
+    default Double invoke() {
+        return this.evaluate();
+    }
+
+    /**
+     * The variables and functions this expression reads.
+     */
+    default Dependencies getDependencies() {
+        return Dependencies.of(this);
+    }
 
     class Add extends BinaryOperator {
         public Add(Expression lhs, Expression rhs) {
             super(lhs, rhs);
         }
 
-        public Add() {
-            super();
+        public Add copy(Expression lhs, Expression rhs) {
+            return new Add(lhs, rhs);
         }
 
 
-        public Double invoke() {
-            return (this.getLHS().invoke()) + (this.getRHS().invoke());
+        public double evaluate() {
+            return (this.getLHS().evaluate()) + (this.getRHS().evaluate());
+        }
+
+        public double evaluate(double[] args) {
+            return this.getLHS().evaluate(args) + this.getRHS().evaluate(args);
         }
     }
 
@@ -27,29 +55,29 @@ public interface Expression extends IExpression<Double> {
         }
 
         public boolean operation() {
-            return (this.getLHS().invoke()) == 1.0 && (this.getRHS().invoke()) == 1.0;
+            return (this.getLHS().evaluate()) == 1.0 && (this.getRHS().evaluate()) == 1.0;
         }
 
-        public And() {
-            super();
+        public And copy(Expression lhs, Expression rhs) {
+            return new And(lhs, rhs);
+        }
+
+        public boolean operation(double[] args) {
+            return this.getLHS().evaluate(args) == 1.0 && this.getRHS().evaluate(args) == 1.0;
         }
     }
 
     abstract class BinaryOperator implements Expression {
         
-        public Expression LHS;
+        public final Expression LHS;
         
-        public Expression RHS;
+        public final Expression RHS;
 
         public BinaryOperator(Expression LHS, Expression RHS) {
             super();
             this.LHS = LHS;
             this.RHS = RHS;
         }
-
-        public BinaryOperator() {
-            this(new Empty(), new Empty());
-        }
         
         public final Expression getLHS() {
             return this.LHS;
@@ -59,6 +87,8 @@ public interface Expression extends IExpression<Double> {
         public final Expression getRHS() {
             return this.RHS;
         }
+
+        public abstract BinaryOperator copy(Expression lhs, Expression rhs);
         
         public String toString() {
             return "" + '(' + this.LHS + ", " + this.RHS + ')';
@@ -72,8 +102,12 @@ public interface Expression extends IExpression<Double> {
             this.constant = constant;
         }
 
+        public final double getConstant() {
+            return this.constant;
+        }
+
         
-        public Double invoke() {
+        public double evaluate() {
             return this.constant;
         }
 
@@ -89,32 +123,19 @@ public interface Expression extends IExpression<Double> {
         }
 
         
-        public Double invoke() {
-            return this.getLHS().invoke() / this.getRHS().invoke();
-        }
-
-        public Div() {
-            super();
-        }
-    }
-
-    class Empty implements Expression {
-        
-        public Double invoke() {
-            throw new ExecutionError("Expression was executed before it was fully processed.");
+        public double evaluate() {
+            return this.getLHS().evaluate() / this.getRHS().evaluate();
         }
 
-        
-        public String toString() {
-            return "Empty";
+        public Div copy(Expression lhs, Expression rhs) {
+            return new Div(lhs, rhs);
         }
 
-        static class ExecutionError extends RuntimeException {
-            public ExecutionError(String message) {
-                super(message);
-            }
+        public double evaluate(double[] args) {
+            return this.getLHS().evaluate(args) / this.getRHS().evaluate(args);
         }
     }
+
     
     class Eq extends PseudoBoolean {
         public Eq(Expression lhs, Expression rhs) {
@@ -122,29 +143,124 @@ public interface Expression extends IExpression<Double> {
         }
 
         public boolean operation() {
-            return Objects.equals(this.getLHS().invoke(), this.getRHS().invoke());
+            return Double.doubleToLongBits(this.getLHS().evaluate()) == Double.doubleToLongBits(this.getRHS().evaluate());
         }
 
-        public Eq() {
-            super();
+        public Eq copy(Expression lhs, Expression rhs) {
+            return new Eq(lhs, rhs);
+        }
+
+        public boolean operation(double[] args) {
+            return Double.doubleToLongBits(this.getLHS().evaluate(args)) == Double.doubleToLongBits(this.getRHS().evaluate(args));
         }
     }
 
     class Fun implements Expression {
         
+        private final String name;
+
         private final Function function;
         
         private final ArrayList<IExpression<?>> params;
 
+        // Numeric arguments of a primitive function, or null when the call goes through the boxed List path.
+        private final Expression[] args;
+
+        // Created once so lazy calls do not allocate.
+        private final Function.Arguments arguments;
+
+        // For calls through the boxed List path: the values of string literals, in place, with null where an argument
+        // has to be evaluated on every call.
+        private final Object[] constants;
+
+        // Whether a parameter is read below this call.
+        private final boolean parameterized;
+
         public Fun(Function function, ArrayList<IExpression<?>> params) {
+            this(null, function, params);
+        }
+
+        /**
+         * @param name the name the function was called by, or null when it is not known.
+         */
+        public Fun(String name, Function function, ArrayList<IExpression<?>> params) {
             super();
+            this.name = name;
             this.function = function;
-            this.params = params;
+            this.params = new ArrayList<>(params);
+            this.args = function.isPrimitive() ? numericArgs(params) : null;
+            this.arguments = this.args != null && function.kind == Function.Kind.LAZY ? new ArgumentList(this.args) : null;
+            this.constants = this.args == null ? boxedConstants(params) : null;
+            boolean parameterized = false;
+            for (IExpression<?> param : this.params) parameterized |= Param.appearsIn(param);
+            this.parameterized = parameterized;
+        }
+
+        private static Expression[] numericArgs(ArrayList<IExpression<?>> params) {
+            Expression[] args = new Expression[params.size()];
+            for (int i = 0; i < args.length; i++) {
+                if (!(params.get(i) instanceof Expression)) return null;
+                args[i] = (Expression) params.get(i);
+            }
+            return args;
+        }
+
+        private static Object[] boxedConstants(ArrayList<IExpression<?>> params) {
+            Object[] constants = new Object[params.size()];
+            for (int i = 0; i < constants.length; i++) {
+                if (params.get(i) instanceof SExpression.Const) constants[i] = ((SExpression.Const) params.get(i)).invoke();
+            }
+            return constants;
+        }
+
+        public final String getName() {
+            return this.name;
+        }
+
+        public final Function getFunction() {
+            return this.function;
+        }
+
+        public final ArrayList<IExpression<?>> getParams() {
+            return this.params;
+        }
+
+        final Expression[] getArgs() {
+            return this.args;
+        }
+
+        private static final class ArgumentList implements Function.Arguments {
+            private final Expression[] args;
+
+            private ArgumentList(Expression[] args) {
+                this.args = args;
+            }
+
+            public int size() {
+                return this.args.length;
+            }
+
+            public double evaluate(int index) {
+                return this.args[index].evaluate();
+            }
         }
 
         
-        public Double invoke() {
-            return this.function.invoke(this.params);
+        public double evaluate() {
+            if (this.args != null) return this.function.evaluate(this.args, this.arguments);
+            ArrayList<Object> values = new ArrayList<>(this.constants.length);
+            for (int i = 0; i < this.constants.length; i++) {
+                Object constant = this.constants[i];
+                values.add(constant != null ? constant : this.params.get(i).invoke());
+            }
+            return this.function.supplier.invoke(values);
+        }
+
+        public double evaluate(double[] args) {
+            if (!this.parameterized) return this.evaluate();
+            if (this.args != null && this.function.kind != Function.Kind.LAZY) return this.function.evaluate(this.args, args);
+            // Lazy and boxed functions evaluate their arguments themselves, so the parameters are passed on the side.
+            return Param.evaluateWith(this, args);
         }
 
     }
@@ -155,11 +271,15 @@ public interface Expression extends IExpression<Double> {
         }
 
         public boolean operation() {
-            return (this.getLHS().invoke()) > (this.getRHS().invoke());
+            return (this.getLHS().evaluate()) > (this.getRHS().evaluate());
         }
 
-        public Gtr() {
-            super();
+        public Gtr copy(Expression lhs, Expression rhs) {
+            return new Gtr(lhs, rhs);
+        }
+
+        public boolean operation(double[] args) {
+            return this.getLHS().evaluate(args) > this.getRHS().evaluate(args);
         }
     }
 
@@ -169,11 +289,15 @@ public interface Expression extends IExpression<Double> {
         }
 
         public boolean operation() {
-            return (this.getLHS().invoke()) < (this.getRHS().invoke());
+            return (this.getLHS().evaluate()) < (this.getRHS().evaluate());
         }
 
-        public Lss() {
-            super();
+        public Lss copy(Expression lhs, Expression rhs) {
+            return new Lss(lhs, rhs);
+        }
+
+        public boolean operation(double[] args) {
+            return this.getLHS().evaluate(args) < this.getRHS().evaluate(args);
         }
     }
 
@@ -183,12 +307,16 @@ public interface Expression extends IExpression<Double> {
         }
 
         
-        public Double invoke() {
-            return (this.getLHS().invoke()) * (this.getRHS().invoke());
+        public double evaluate() {
+            return (this.getLHS().evaluate()) * (this.getRHS().evaluate());
         }
 
-        public Mul() {
-            super();
+        public Mul copy(Expression lhs, Expression rhs) {
+            return new Mul(lhs, rhs);
+        }
+
+        public double evaluate(double[] args) {
+            return this.getLHS().evaluate(args) * this.getRHS().evaluate(args);
         }
     }
 
@@ -203,12 +331,16 @@ public interface Expression extends IExpression<Double> {
         }
 
         
-        public Double invoke() {
-            return -(this.getExpression().invoke());
+        public double evaluate() {
+            return -(this.getExpression().evaluate());
+        }
+
+        public Negate copy(Expression expression) {
+            return new Negate(expression);
         }
 
-        public Negate() {
-            this((new Empty()));
+        public double evaluate(double[] args) {
+            return -(this.getExpression().evaluate(args));
         }
     }
 
@@ -218,11 +350,15 @@ public interface Expression extends IExpression<Double> {
         }
 
         public boolean operation() {
-            return (this.getLHS().invoke()) == 1.0 || (this.getRHS().invoke()) == 1.0;
+            return (this.getLHS().evaluate()) == 1.0 || (this.getRHS().evaluate()) == 1.0;
         }
 
-        public Or() {
-            super();
+        public Or copy(Expression lhs, Expression rhs) {
+            return new Or(lhs, rhs);
+        }
+
+        public boolean operation(double[] args) {
+            return this.getLHS().evaluate(args) == 1.0 || this.getRHS().evaluate(args) == 1.0;
         }
     }
 
@@ -232,12 +368,16 @@ public interface Expression extends IExpression<Double> {
         }
 
         
-        public Double invoke() {
-            return Math.pow((this.getLHS().invoke()), (this.getRHS().invoke()));
+        public double evaluate() {
+            return Math.pow((this.getLHS().evaluate()), (this.getRHS().evaluate()));
         }
 
-        public Pow() {
-            super();
+        public Pow copy(Expression lhs, Expression rhs) {
+            return new Pow(lhs, rhs);
+        }
+
+        public double evaluate(double[] args) {
+            return Math.pow(this.getLHS().evaluate(args), this.getRHS().evaluate(args));
         }
     }
 
@@ -246,16 +386,20 @@ public interface Expression extends IExpression<Double> {
             super(lhs, rhs);
         }
 
-        public PseudoBoolean() {
-            this(new Empty(), new Empty());
-        }
 
-
-        public Double invoke() {
+        public double evaluate() {
             return this.operation() ? 1.0 : 0.0;
         }
 
+        public double evaluate(double[] args) {
+            return this.operation(args) ? 1.0 : 0.0;
+        }
+
         public abstract boolean operation();
+
+        public boolean operation(double[] args) {
+            return this.operation();
+        }
     }
 
     class Sub extends BinaryOperator {
@@ -264,18 +408,22 @@ public interface Expression extends IExpression<Double> {
         }
 
         
-        public Double invoke() {
-            return (this.getLHS().invoke()) - (this.getRHS().invoke());
+        public double evaluate() {
+            return (this.getLHS().evaluate()) - (this.getRHS().evaluate());
         }
 
-        public Sub() {
-            super();
+        public Sub copy(Expression lhs, Expression rhs) {
+            return new Sub(lhs, rhs);
+        }
+
+        public double evaluate(double[] args) {
+            return this.getLHS().evaluate(args) - this.getRHS().evaluate(args);
         }
     }
 
     abstract class UnaryOperator implements Expression {
         
-        public Expression expression;
+        public final Expression expression;
 
         protected UnaryOperator(Expression expression) {
             super();
@@ -286,6 +434,81 @@ public interface Expression extends IExpression<Double> {
         public final Expression getExpression() {
             return this.expression;
         }
+
+        public abstract UnaryOperator copy(Expression expression);
+    }
+
+    /**
+     * A parameter declared when compiling, read from the argument array passed to {@link #evaluate(double[])}.
+     */
+    class Param implements Expression {
+        private static final ThreadLocal<double[]> FRAME = new ThreadLocal<>();
+        private static final double[] NO_ARGUMENTS = new double[0];
+
+        private final String name;
+
+        private final int index;
+
+        public Param(String name, int index) {
+            super();
+            this.name = name;
+            this.index = index;
+        }
+
+        public final String getName() {
+            return this.name;
+        }
+
+        public final int getIndex() {
+            return this.index;
+        }
+
+        public double evaluate() {
+            return frame()[this.index];
+        }
+
+        public double evaluate(double[] args) {
+            return args[this.index];
+        }
+
+        /**
+         * The arguments of the innermost {@link #evaluate(double[])} on this thread that had to pass them on the side.
+         */
+        static double[] frame() {
+            double[] frame = FRAME.get();
+            if (frame == null) throw new IllegalStateException("Expression has parameters and must be evaluated with an argument array.");
+            return frame;
+        }
+
+        // Like frame(), but returns an empty array when there is none, for compiled forms that may not read it at all.
+        static double[] currentFrame() {
+            double[] frame = FRAME.get();
+            return frame != null ? frame : NO_ARGUMENTS;
+        }
+
+        static double evaluateWith(Expression expression, double[] args) {
+            double[] previous = FRAME.get();
+            FRAME.set(args);
+            try {
+                return expression.evaluate();
+            } finally {
+                FRAME.set(previous);
+            }
+        }
+
+        // Nodes this file does not know, such as profiling wrappers, may read parameters too.
+        static boolean appearsIn(IExpression<?> node) {
+            if (node instanceof Param) return true;
+            if (node instanceof Const || node instanceof Var || node instanceof SExpression) return false;
+            if (node instanceof UnaryOperator) return appearsIn(((UnaryOperator) node).getExpression());
+            if (node instanceof BinaryOperator) return appearsIn(((BinaryOperator) node).getLHS()) || appearsIn(((BinaryOperator) node).getRHS());
+            if (node instanceof Fun) return ((Fun) node).parameterized;
+            return true;
+        }
+
+        public String toString() {
+            return this.name;
+        }
     }
 
     class Var implements Expression {
@@ -300,6 +523,12 @@ public interface Expression extends IExpression<Double> {
             this.supplier = context.getVariable(this.id);
         }
 
+        Var(String id, Expression supplier) {
+            super();
+            this.id = id;
+            this.supplier = supplier;
+        }
+
         
         public final String getId() {
             return this.id;
@@ -310,9 +539,25 @@ public interface Expression extends IExpression<Double> {
             return this.supplier;
         }
 
+        public final boolean isConstant() {
+            return this.supplier instanceof Const;
+        }
+
+        public final boolean isPure() {
+            return !(this.supplier instanceof VariableList.Impure);
+        }
+
+        /**
+         * Whether every read of this variable within one evaluation gives the same value, so it may be read more than
+         * once: constants and variables registered as {@link VariableList.Pure}.
+         */
+        public final boolean isRepeatable() {
+            return this.supplier instanceof Const || this.supplier instanceof VariableList.Pure;
+        }
+
         
-        public Double invoke() {
-            return this.supplier.invoke();
+        public double evaluate() {
+            return this.supplier.evaluate();
         }
 
         
@@ -0,0 +1,123 @@
+package celestialexpressions;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded, thread-safe cache of compiled expressions. Sources are normalized before lookup, contexts are compared
+ * by identity, and entries compiled against an older module set of a context are recompiled once
+ * {@link ExpressionContext#addModule(Module)} has changed it. The least recently used entry is evicted when the cache
+ * is full.
+ */
+public final class ExpressionCache {
+    private final int maximumSize;
+    private final LinkedHashMap<Key, Entry> entries;
+    private long hits;
+    private long misses;
+
+    public ExpressionCache(int maximumSize) {
+        if (maximumSize <= 0) throw new IllegalArgumentException("Cache size must be positive.");
+        this.maximumSize = maximumSize;
+        this.entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                return this.size() > ExpressionCache.this.maximumSize;
+            }
+        };
+    }
+
+    public Expression compile(String source, ExpressionContext context) {
+        return this.compile(source, context, new CompileOptions());
+    }
+
+    public Expression compile(String source, ExpressionContext context, CompileOptions options) {
+        String normalized = ExpressionTokenizer.removeIrrelevantChars(source);
+        Key key = new Key(normalized, context, options);
+        int version = context.getVersion();
+
+        synchronized (this) {
+            Entry entry = this.entries.get(key);
+            if (entry != null && entry.version == version) {
+                this.hits++;
+                return entry.expression;
+            }
+            this.misses++;
+        }
+
+        // Compiled outside the lock so one slow expression does not block every other lookup.
+        Expression expression = ExpressionCompiler.compile(normalized, context, options);
+        synchronized (this) {
+            this.entries.put(key, new Entry(expression, version));
+        }
+        return expression;
+    }
+
+    public synchronized long getHits() {
+        return this.hits;
+    }
+
+    public synchronized long getMisses() {
+        return this.misses;
+    }
+
+    public synchronized int size() {
+        return this.entries.size();
+    }
+
+    public int getMaximumSize() {
+        return this.maximumSize;
+    }
+
+    public synchronized void clear() {
+        this.entries.clear();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ExpressionCache(size=" + this.entries.size() + ", hits=" + this.hits + ", misses=" + this.misses + ')';
+    }
+
+    private static final class Key {
+        private final String source;
+        private final ExpressionContext context;
+        private final CompileOptions.Backend backend;
+        private final CompileOptions.Precision precision;
+        // Compared by identity, so that every profiler gets expressions instrumented for itself.
+        private final EvaluationProfiler profiler;
+
+        private Key(String source, ExpressionContext context, CompileOptions options) {
+            this.source = source;
+            this.context = context;
+            this.backend = options.getBackend();
+            this.precision = options.getPrecision();
+            this.profiler = options.getProfiler();
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) return true;
+            if (!(other instanceof Key)) return false;
+            Key key = (Key) other;
+            return this.context == key.context && this.backend == key.backend && this.precision == key.precision
+                    && this.profiler == key.profiler && this.source.equals(key.source);
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = this.source.hashCode() * 31 + System.identityHashCode(this.context);
+            hash = hash * 31 + this.backend.hashCode();
+            hash = hash * 31 + this.precision.hashCode();
+            return hash * 31 + System.identityHashCode(this.profiler);
+        }
+    }
+
+    private static final class Entry {
+        private final Expression expression;
+        private final int version;
+
+        private Entry(Expression expression, int version) {
+            this.expression = expression;
+            this.version = version;
+        }
+    }
+}
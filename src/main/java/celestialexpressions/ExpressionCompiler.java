@@ -1,261 +1,241 @@
 package celestialexpressions;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import java.util.ListIterator;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
 
 import static celestialexpressions.ExpressionTokenizer.*;
 
 public class ExpressionCompiler {
     public static Expression compile(String source, ExpressionContext context) {
-        return assembleExpression(
-                validateExpression(
-                        identifyTokens(
-                                splitTokens(
-                                        removeIrrelevantChars(
-                                                source)))), context);
+        return assembleExpression(validateExpression(tokenize(source)), context);
     }
 
-    public static Expression compile(String source) {
-        return compile(source, new ExpressionContext());
+    public static Expression compile(String source, ExpressionContext context, CompileOptions options) {
+        return compile(source, context, options, new String[0]);
     }
 
-    public static Expression assembleExpression(ArrayList<Token> input, ExpressionContext context) {
-        return (Expression) buildExpressionTree(input, context).getExpression();
+    /**
+     * Compiles {@code source} with the given names declared as parameters. A parameter takes precedence over a
+     * variable of the same name and is read from the array passed to {@link Expression#evaluate(double[])}, by its
+     * position in {@code parameters}. Such an expression keeps no per-call state, so one instance can be evaluated by
+     * many threads with an argument array each.
+     */
+    public static Expression compile(String source, ExpressionContext context, String... parameters) {
+        return compile(source, context, new CompileOptions(), parameters);
     }
 
-    public static ArrayList<Token> validateExpression(ArrayList<Token> input) {
-        int grouping = 0;
-        for (Token token : input) {
-            if (token.type == Token.Type.GROUPING_START) grouping++;
-            else if (token.type == Token.Type.GROUPING_END) grouping--;
+    public static Expression compile(String source, ExpressionContext context, CompileOptions options, String... parameters) {
+        Expression expression = assembleExpression(validateExpression(tokenize(source)), context, parameters);
+        if (options.getPrecision() == CompileOptions.Precision.FAST) expression = FastMath.approximate(expression);
+        if (options.getProfiler() != null) expression = options.getProfiler().instrument(source, expression);
+        switch (options.getBackend()) {
+            case BYTECODE: return BytecodeCompiler.compile(expression);
+            case POSTFIX: return PostfixCompiler.compile(expression);
+            default: return expression;
         }
-
-        if (grouping != 0) throw new InvalidExpressionException("Grouping symbols are not balanced.");
-
-        return input;
     }
 
-    public static class InvalidExpressionException extends RuntimeException {
-        public InvalidExpressionException(String message) {
-            super(message);
-        }
+    public static Expression compile(String source) {
+        return compile(source, new ExpressionContext());
     }
 
-    public interface ExpressionTreeElement {}
-
-    public static class ExpressionTree implements ExpressionTreeElement {
-        public IExpression<?> start;
-        public ArrayList<ExpressionTreePart> elements;
+    public static BulkCompilation compileAll(Map<String, String> sources, ExpressionContext context) {
+        return compileAll(sources, context, new CompileOptions(), ForkJoinPool.commonPool());
+    }
 
-        public ExpressionTree(IExpression<?> start, ArrayList<ExpressionTreePart> elements) {
-            this.start = start;
-            this.elements = elements;
+    /**
+     * Compiles every source of {@code sources} on {@code executor} and returns the results under the same keys.
+     * Sources that only differ in whitespace are compiled once and share the resulting expression. An entry that fails
+     * to compile is reported in {@link BulkCompilation#getFailures()} and does not affect the others.
+     * <p>
+     * The calling thread compiles alongside the executor's threads and returns once every source is done.
+     */
+    public static BulkCompilation compileAll(Map<String, String> sources, ExpressionContext context, CompileOptions options, Executor executor) {
+        Map<String, Integer> unique = new HashMap<>();
+        ArrayList<String> normalized = new ArrayList<>();
+        Map<String, Integer> entries = new LinkedHashMap<>();
+        for (Map.Entry<String, String> entry : sources.entrySet()) {
+            String source = removeIrrelevantChars(entry.getValue());
+            Integer index = unique.get(source);
+            if (index == null) {
+                index = normalized.size();
+                unique.put(source, index);
+                normalized.add(source);
+            }
+            entries.put(entry.getKey(), index);
         }
 
-        public IExpression<?> getExpression() {
-            if (elements.isEmpty()) return this.start;
-
-            ListIterator<ExpressionTreePart> iter = this.elements.listIterator();
-            while (iter.hasNext()) {
-                int index = iter.nextIndex();
-                ExpressionTreePart element = iter.next();
-                if (element.operator instanceof Expression.Pow) {
-                    Expression.BinaryOperator combined = element.operator;
-                    combined.LHS = (Expression) getPrevious(index);
-                    combined.RHS = element.element;
-                    if (index == 0) this.start = combined;
-                    else this.elements.get(index - 1).element = combined;
-                    iter.remove();
+        int count = normalized.size();
+        Object[] results = new Object[count];
+        AtomicInteger next = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(count);
+        Runnable worker = () -> {
+            for (int i = next.getAndIncrement(); i < count; i = next.getAndIncrement()) {
+                try {
+                    results[i] = compile(normalized.get(i), context, options);
+                } catch (Throwable e) {
+                    results[i] = e;
+                } finally {
+                    done.countDown();
                 }
             }
+        };
+        int helpers = Math.min(count - 1, executor instanceof ForkJoinPool ? ((ForkJoinPool) executor).getParallelism() : Runtime.getRuntime().availableProcessors());
+        try {
+            for (int i = 0; i < helpers; i++) executor.execute(worker);
+        } catch (RejectedExecutionException e) {
+            // The calling thread compiles whatever the executor did not take.
+        }
+        worker.run();
+        awaitUninterruptibly(done);
+
+        Map<String, Expression> expressions = new LinkedHashMap<>();
+        Map<String, RuntimeException> failures = new LinkedHashMap<>();
+        for (Map.Entry<String, Integer> entry : entries.entrySet()) {
+            Object result = results[entry.getValue()];
+            if (result instanceof Expression) expressions.put(entry.getKey(), (Expression) result);
+            else if (result instanceof RuntimeException) failures.put(entry.getKey(), (RuntimeException) result);
+            else throw (Error) result;
+        }
+        return new BulkCompilation(expressions, failures);
+    }
 
-            ListIterator<ExpressionTreePart> iter2 = this.elements.listIterator();
-            while (iter2.hasNext()) {
-                int index = iter2.nextIndex();
-                ExpressionTreePart element = iter2.next();
-                if (element.operator instanceof Expression.Mul || element.operator instanceof Expression.Div) {
-                    Expression.BinaryOperator combined = element.operator;
-                    combined.LHS = (Expression) getPrevious(index);
-                    combined.RHS = element.element;
-                    if (index == 0) this.start = combined;
-                    else this.elements.get(index - 1).element = combined;
-                    iter2.remove();
-                }
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                latch.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
             }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
 
-            ListIterator<ExpressionTreePart> iter3 = this.elements.listIterator();
-            while (iter3.hasNext()) {
-                int index = iter3.nextIndex();
-                ExpressionTreePart element = iter3.next();
-                if (element.operator instanceof Expression.Add || element.operator instanceof Expression.Sub) {
-                    Expression.BinaryOperator combined = element.operator;
-                    combined.LHS = (Expression) getPrevious(index);
-                    combined.RHS = element.element;
-                    if (index == 0) this.start = combined;
-                    else this.elements.get(index - 1).element = combined;
-                    iter3.remove();
-                }
-            }
+    /**
+     * Compiles a stream of sources, keyed by the sources themselves.
+     */
+    public static BulkCompilation compileAll(Stream<String> sources, ExpressionContext context, CompileOptions options, Executor executor) {
+        Map<String, String> keyed = new LinkedHashMap<>();
+        sources.forEach(source -> keyed.put(source, source));
+        return compileAll(keyed, context, options, executor);
+    }
 
-            ListIterator<ExpressionTreePart> iter4 = this.elements.listIterator();
-            while (iter4.hasNext()) {
-                int index = iter4.nextIndex();
-                ExpressionTreePart element = iter4.next();
-                if (element.operator instanceof Expression.And ||
-                    element.operator instanceof Expression.Or  ||
-                    element.operator instanceof Expression.Eq  ||
-                    element.operator instanceof Expression.Gtr ||
-                    element.operator instanceof Expression.Lss) {
-                    Expression.BinaryOperator combined = element.operator;
-                    combined.LHS = (Expression) getPrevious(index);
-                    combined.RHS = element.element;
-                    if (index == 0) this.start = combined;
-                    else this.elements.get(index - 1).element = combined;
-                    iter4.remove();
-                }
-            }
+    /**
+     * Compiles {@code source} and returns it in the precompiled binary format, with the source kept alongside.
+     */
+    public static ByteBuffer serialize(String source, ExpressionContext context) {
+        return ExpressionFormat.encode(source, compile(source, context), context);
+    }
 
-            return this.start;
-        }
+    /**
+     * Returns an already compiled expression in the precompiled binary format. Expressions made by other means than
+     * {@link #compile(String, ExpressionContext)}, such as profiled ones, cannot be stored.
+     */
+    public static ByteBuffer serialize(Expression expression, ExpressionContext context) {
+        return ExpressionFormat.encode("", expression, context);
+    }
 
-        IExpression<?> getPrevious(int index) {
-            if (index == 0) return this.start;
-            return this.elements.get(index - 1).element;
-        }
+    /**
+     * Loads a precompiled expression from {@code buffer} without tokenizing or parsing. The buffer is checked against
+     * its checksum and its symbols are resolved in {@code context}; a context whose modules differ from the one it was
+     * compiled against is rejected, since constants may have been folded into the stored form.
+     */
+    public static Expression deserialize(ByteBuffer buffer, ExpressionContext context) {
+        return ExpressionFormat.decode(buffer, context);
     }
 
-    public static class ExpressionTreePart implements ExpressionTreeElement {
-        public final Expression.BinaryOperator operator;
-        public Expression element;
+    public static void save(String source, ExpressionContext context, Path path) throws IOException {
+        write(serialize(source, context), path);
+    }
 
-        public ExpressionTreePart(Expression.BinaryOperator operator, Expression element) {
-            this.operator = operator;
-            this.element = element;
+    private static void write(ByteBuffer buffer, Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) channel.write(buffer);
         }
     }
 
-    public static class ExpressionTreeBuilder {
-        IExpression<?> start;
-        ArrayList<ExpressionTreePart> elements;
-
-        public ExpressionTreeBuilder(IExpression<?> start) {
-            this.start = start;
-            this.elements = new ArrayList<>();
+    /**
+     * Loads a precompiled expression from a file, which is memory-mapped rather than read.
+     */
+    public static Expression load(Path path, ExpressionContext context) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return deserialize(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), context);
         }
+    }
 
-        public void add(IExpression<?> element) {
-            if (element instanceof Expression.BinaryOperator && ((Expression.BinaryOperator) element).LHS instanceof Expression.Empty && ((Expression.BinaryOperator) element).RHS instanceof Expression.Empty) this.elements.add(
-                    new ExpressionTreePart((Expression.BinaryOperator) element, new Expression.Empty())
-            );
-            else {
-                if (this.elements.isEmpty()) {
-                    if (this.start instanceof Expression.Empty) {
-                        this.start = element;
-                    } else if (this.start instanceof Expression.UnaryOperator) {
-                        ((Expression.UnaryOperator) this.start).expression = (Expression) element;
-                    } else {
-                        this.start = new Expression.Mul((Expression) this.start, (Expression) element);
-                    }
-                } else {
-                    ExpressionTreePart last = this.elements.get(this.elements.size() - 1);
-                    if (last.element instanceof Expression.Empty) {
-                        last.element = (Expression) element;
-                    } else if (last.element instanceof Expression.UnaryOperator) {
-                        ((Expression.UnaryOperator) last.element).expression = (Expression) element;
-                    } else {
-                        last.element = new Expression.Mul(last.element, (Expression) element);
-                    }
-                }
+    /**
+     * Loads {@code cache} if it holds {@code source} precompiled against an equivalent context, and otherwise compiles
+     * the source and writes it to {@code cache} for next time. Failing to write the cache does not fail the compilation.
+     */
+    public static Expression loadOrCompile(String source, ExpressionContext context, Path cache) {
+        if (Files.isRegularFile(cache)) {
+            try (FileChannel channel = FileChannel.open(cache, StandardOpenOption.READ)) {
+                ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (ExpressionFormat.readSource(buffer).equals(source)) return deserialize(buffer, context);
+            } catch (IOException | PrecompiledFormatException e) {
+                // Stale or damaged, compile again below.
             }
         }
-
-        public ExpressionTree end() {
-            return new ExpressionTree(this.start, this.elements);
+        Expression expression = compile(source, context);
+        try {
+            write(ExpressionFormat.encode(source, expression, context), cache);
+        } catch (IOException e) {
+            // The cache is only an optimization.
         }
+        return expression;
     }
 
-    public static ExpressionTree buildExpressionTree(ArrayList<Token> input, ExpressionContext context) {
-        ExpressionTreeBuilder builder = null;
-        ListIterator<Token> iter = input.listIterator();
-        while (iter.hasNext()) {
-            if (builder == null) builder = new ExpressionTreeBuilder(getNextExpression(iter, context));
-            else {
-                IExpression<?> nextExpression = getNextExpression(iter, context);
-                builder.add(nextExpression);
-            }
-        }
-        if (builder == null) throw new InvalidExpressionException("Expression must have a value.");
-        return builder.end();
+    public static Expression assembleExpression(ArrayList<Token> input, ExpressionContext context) {
+        return ExpressionOptimizer.optimize(ExpressionParser.parse(input, context));
     }
 
-    public static IExpression<?> getNextExpression(ListIterator<Token> tokens, ExpressionContext context) {
-        Token token = tokens.next();
-        while (token.type == Token.Type.SPLITTER) token = tokens.next();
-        if (token.type == Token.Type.GROUPING_START && token.text.equals("(")) {
-            ArrayList<Token> subTokenArray = new ArrayList<>();
-            int depth = 1;
-            while (true) {
-                Token toAdd = tokens.next();
-                if (toAdd.type == Token.Type.GROUPING_START) depth++;
-                else if (toAdd.type == Token.Type.GROUPING_END) depth--;
-                if (depth > 0) subTokenArray.add(toAdd);
-                else break;
-            }
-            return buildExpressionTree(subTokenArray, context).getExpression();
-        } else if (token.type == Token.Type.GROUPING_START) {
-            return processFunction(token, tokens, context);
-        } else if (token.type != Token.Type.GROUPING_END) {
-            return token.getExpression(context);
+    public static Expression assembleExpression(ArrayList<Token> input, ExpressionContext context, String... parameters) {
+        List<String> names = Arrays.asList(parameters);
+        for (int i = 0; i < parameters.length; i++) {
+            if (names.indexOf(parameters[i]) != i) throw new InvalidExpressionException("Parameter \"" + parameters[i] + "\" is declared more than once.");
         }
-        else throw new InvalidExpressionException("Attempted to get expression from end grouping symbol. This is likely a bug in the compiler.");
+        return ExpressionOptimizer.optimize(ExpressionParser.parse(input, context, names));
     }
 
-    public static Expression processFunction(Token token, ListIterator<Token> tokens, ExpressionContext context) {
-        String name = token.text;
-        ArrayList<ArrayList<Token>> params = new ArrayList<>();
-        int depth = 1;
-        int argCount = 1;
-
-        scan:
-        while (true) {
-            ArrayList<Token> subTokenArray = new ArrayList<>();
-            while (true) {
-                Token toAdd = tokens.next();
-                if (toAdd.type == Token.Type.SPLITTER && depth == 1) {
-                    argCount++;
-                    params.add(subTokenArray);
-                    break;
-                }
-                else if (toAdd.type == Token.Type.GROUPING_START) depth++;
-                else if (toAdd.type == Token.Type.GROUPING_END) {
-                    depth--;
-                    if (depth == 0) {
-                        params.add(subTokenArray);
-                        break scan;
-                    }
-                }
-                subTokenArray.add(toAdd);
-            }
+    public static ArrayList<Token> validateExpression(ArrayList<Token> input) {
+        int grouping = 0;
+        for (Token token : input) {
+            if (token.type == Token.Type.GROUPING_START) grouping++;
+            else if (token.type == Token.Type.GROUPING_END) grouping--;
         }
 
-        Function function = context.getFunction(name, argCount);
-        ArrayList<IExpression<?>> expressions = new ArrayList<>();
-        for (ArrayList<Token> it : params) {
-            expressions.add(buildExpressionTree(it, context).getExpression());
+        if (grouping != 0) throw new InvalidExpressionException("Grouping symbols are not balanced.");
+
+        return input;
+    }
+
+    public static class PrecompiledFormatException extends RuntimeException {
+        public PrecompiledFormatException(String message) {
+            super(message);
         }
-        if (function.size != params.size() && function.size >= 0.0) {
-            StringBuilder message = new StringBuilder();
-            message.append("Function \"");
-            message.append(name);
-            message.append("\" takes ");
-            message.append(function.size);
-            if (function.size == 1) message.append(" parameter");
-            else message.append(" parameters");
-            message.append(", but ");
-            message.append(params.size());
-            message.append(" were provided.");
-            throw new InvalidExpressionException(message.toString());
+    }
+
+    public static class InvalidExpressionException extends RuntimeException {
+        public InvalidExpressionException(String message) {
+            super(message);
         }
-        return new Expression.Fun(function, expressions);
     }
 }
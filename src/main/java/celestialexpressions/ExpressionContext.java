@@ -1,157 +1,298 @@
 package celestialexpressions;
 
-import java.time.Instant;
-import java.time.LocalDate;
 import java.time.LocalDateTime;
-import java.time.LocalTime;
 import java.util.*;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.ToDoubleFunction;
 
 
-
+/**
+ * The modules an expression is compiled against. A context can be shared between threads: every lookup reads an
+ * immutable snapshot of the module set, and {@link #addModule(Module)} publishes a new snapshot. Expressions compiled
+ * before a module was added keep the symbols they resolved.
+ */
 public final class ExpressionContext {
-    private final List<Module> modules;
-
-    public final static Module STANDARD_MODULE = new Module(
-            "std",
-            new VariableList()
-                    .with("PI", ()->Math.PI)
-                    .with("pi", ()->Math.PI)
-                    .with("e", ()->Math.E)
-                    .with("E", ()->Math.E)
-                    .with("maxInteger", ()-> (double) Integer.MAX_VALUE)
-                    .with("minInteger", ()-> (double) Integer.MIN_VALUE)
-                    .with("maxDouble", ()->Double.MAX_VALUE)
-                    .with("minDouble", ()->Double.MIN_VALUE)
-                    .with("localDayOfYear", ()-> (double) LocalDate.now().getDayOfYear())
-                    .with("localDayOfMonth", ()-> (double) LocalDate.now().getDayOfMonth())
-                    .with("localDayOfWeek", ()-> (double) LocalDate.now().getDayOfWeek().getValue())
-                    .with("localMonth", ()-> (double) LocalDate.now().getMonth().getValue())
-                    .with("localYear", ()-> (double) LocalDate.now().getYear())
-                    .with("localSecondOfHour", ()-> (double) LocalDateTime.now().getSecond())
-                    .with("localMinuteOfHour", ()-> (double) LocalDateTime.now().getMinute())
-                    .with("localSecondOfDay", ()-> (double) (((LocalDate.now().atTime(LocalTime.now()).getHour() * 60) + LocalDate.now().atTime(LocalTime.now()).getMinute() * 60) + LocalDate.now().atTime(LocalTime.now()).getSecond()))
-                    .with("localMinuteOfDay", ()-> (double) ((LocalDate.now().atTime(LocalTime.now()).getHour() * 60) + LocalDate.now().atTime(LocalTime.now()).getMinute()))
-                    .with("localHour", ()-> (double) LocalTime.now().getHour())
-                    .with("epochMilli", ()-> (double) Instant.now().toEpochMilli())
-                    .with("random", Math::random),
-            new FunctionList()
-                    .with("min",            new Function((List<Object> arr) -> arr.stream().map(it->(double) it).reduce(Math::min).orElse(0.0), -1))
-                    .with("max",            new Function((List<Object> arr) -> arr.stream().map(it->(double) it).reduce(Math::max).orElse(0.0), -1))
-                    .with("sin",            new Function((List<Object> arr) -> Math.sin(Math.toRadians((double) arr.get(0))), 1))
-                    .with("sinr",           new Function((List<Object> arr) -> Math.sin((double) arr.get(0)), 1))
-                    .with("cos",            new Function((List<Object> arr) -> Math.cos(Math.toRadians((double) arr.get(0))), 1))
-                    .with("cosr",           new Function((List<Object> arr) -> Math.cos((double) arr.get(0)), 1))
-                    .with("tan",            new Function((List<Object> arr) -> Math.tan(Math.toRadians((double) arr.get(0))), 1))
-                    .with("tanr",           new Function((List<Object> arr) -> Math.tan((double) arr.get(0)), 1))
-                    .with("asin",           new Function((List<Object> arr) -> Math.asin(Math.toRadians((double) arr.get(0))), 1))
-                    .with("asinr",          new Function((List<Object> arr) -> Math.asin((double) arr.get(0)), 1))
-                    .with("acos",           new Function((List<Object> arr) -> Math.acos(Math.toRadians((double) arr.get(0))), 1))
-                    .with("acosr",          new Function((List<Object> arr) -> Math.acos((double) arr.get(0)), 1))
-                    .with("atan",           new Function((List<Object> arr) -> Math.atan(Math.toRadians((double) arr.get(0))), 1))
-                    .with("atanr",          new Function((List<Object> arr) -> Math.atan((double) arr.get(0)), 1))
-                    .with("radians",        new Function((List<Object> arr) -> Math.toRadians((double) arr.get(0)), 1))
-                    .with("deg",            new Function((List<Object> arr) -> Math.toDegrees((double) arr.get(0)), 1))
-                    .with("floor",          new Function((List<Object> arr) -> Math.floor((double) arr.get(0)), 1))
-                    .with("ceil",           new Function((List<Object> arr) -> Math.ceil((double) arr.get(0)), 1))
-                    .with("round",          new Function((List<Object> arr) -> (double) Math.round((double) arr.get(0)), 1))
-                    .with("abs",            new Function((List<Object> arr) -> Math.abs((double) arr.get(0)), 1))
-                    .with("sqrt",           new Function((List<Object> arr) -> Math.sqrt((double) arr.get(0)), 1))
-                    .with("consoleLog",     new Function((List<Object> arr) -> {System.out.println(arr.get(0)); return 0.0;}, 1))
-                    .with("ifElse",         new Function((List<Object> arr) -> ((double) arr.get(0) != 0.0) ? (double) arr.get(1) : (double) arr.get(2), 3))
-    );
+    private final SnapshotClock clock;
+    private final RandomSource random;
+    // Replaced as a whole by addModule, never modified in place.
+    private volatile Index index;
+
+    // Shared by every standard module, so that CompileOptions.Precision.FAST can recognize them.
+    static final Function SIN = Function.unary(x -> Math.sin(Math.toRadians(x)), true);
+    static final Function SINR = Function.unary(Math::sin, true);
+    static final Function COS = Function.unary(x -> Math.cos(Math.toRadians(x)), true);
+    static final Function COSR = Function.unary(Math::cos, true);
+    static final Function TAN = Function.unary(x -> Math.tan(Math.toRadians(x)), true);
+    static final Function TANR = Function.unary(Math::tan, true);
+
+    public final static Module STANDARD_MODULE = createStandardModule(SnapshotClock.SYSTEM, RandomSource.SYSTEM);
+
+    /**
+     * Creates the "std" module with its time variables reading from the given clock.
+     */
+    public static Module createStandardModule(SnapshotClock clock) {
+        return createStandardModule(clock, RandomSource.SYSTEM);
+    }
+
+    /**
+     * Creates the "std" module with its time variables reading from the given clock and {@code random} and
+     * {@code randomRange} drawing from the given source.
+     */
+    public static Module createStandardModule(SnapshotClock clock, RandomSource random) {
+        return new Module(
+                "std",
+                new VariableList()
+                        .withConstant("PI", Math.PI)
+                        .withConstant("pi", Math.PI)
+                        .withConstant("e", Math.E)
+                        .withConstant("E", Math.E)
+                        .withConstant("maxInteger", Integer.MAX_VALUE)
+                        .withConstant("minInteger", Integer.MIN_VALUE)
+                        .withConstant("maxDouble", Double.MAX_VALUE)
+                        .withConstant("minDouble", Double.MIN_VALUE)
+                        .with("localDayOfYear", time(clock, c -> c.now().getDayOfYear()))
+                        .with("localDayOfMonth", time(clock, c -> c.now().getDayOfMonth()))
+                        .with("localDayOfWeek", time(clock, c -> c.now().getDayOfWeek().getValue()))
+                        .with("localMonth", time(clock, c -> c.now().getMonth().getValue()))
+                        .with("localYear", time(clock, c -> c.now().getYear()))
+                        .with("localSecondOfHour", time(clock, c -> c.now().getSecond()))
+                        .with("localMinuteOfHour", time(clock, c -> c.now().getMinute()))
+                        .with("localSecondOfDay", time(clock, c -> {
+                            LocalDateTime now = c.now();
+                            return ((now.getHour() * 60) + now.getMinute() * 60) + now.getSecond();
+                        }))
+                        .with("localMinuteOfDay", time(clock, c -> {
+                            LocalDateTime now = c.now();
+                            return (now.getHour() * 60) + now.getMinute();
+                        }))
+                        .with("localHour", time(clock, c -> c.now().getHour()))
+                        .with("epochMilli", time(clock, c -> c.instant().toEpochMilli()))
+                        .withImpure("random", random::next),
+                new FunctionList()
+                        .with("min",            Function.binary(Math::min, true))
+                        .with("min",            Function.ternary((a, b, c) -> Math.min(Math.min(a, b), c), true))
+                        .with("min",            Function.quaternary((a, b, c, d) -> Math.min(Math.min(Math.min(a, b), c), d), true))
+                        .with("min",            Function.varargs(args -> ExpressionContext.reduce(args, Math::min), -1, true))
+                        .with("max",            Function.binary(Math::max, true))
+                        .with("max",            Function.ternary((a, b, c) -> Math.max(Math.max(a, b), c), true))
+                        .with("max",            Function.quaternary((a, b, c, d) -> Math.max(Math.max(Math.max(a, b), c), d), true))
+                        .with("max",            Function.varargs(args -> ExpressionContext.reduce(args, Math::max), -1, true))
+                        .with("sin",            SIN)
+                        .with("sinr",           SINR)
+                        .with("cos",            COS)
+                        .with("cosr",           COSR)
+                        .with("tan",            TAN)
+                        .with("tanr",           TANR)
+                        .with("asin",           Function.unary(x -> Math.asin(Math.toRadians(x)), true))
+                        .with("asinr",          Function.unary(Math::asin, true))
+                        .with("acos",           Function.unary(x -> Math.acos(Math.toRadians(x)), true))
+                        .with("acosr",          Function.unary(Math::acos, true))
+                        .with("atan",           Function.unary(x -> Math.atan(Math.toRadians(x)), true))
+                        .with("atanr",          Function.unary(Math::atan, true))
+                        .with("radians",        Function.unary(Math::toRadians, true))
+                        .with("deg",            Function.unary(Math::toDegrees, true))
+                        .with("floor",          Function.unary(Math::floor, true))
+                        .with("ceil",           Function.unary(Math::ceil, true))
+                        .with("round",          Function.unary(x -> (double) Math.round(x), true))
+                        .with("abs",            Function.unary(Math::abs, true))
+                        .with("sqrt",           Function.unary(Math::sqrt, true))
+                        .with("randomRange",    Function.binary(random::next, false))
+                        .with("hashRandom",     Function.unary(RandomSource::hash, true))
+                        .with("consoleLog",     new Function((List<Object> arr) -> {System.out.println(arr.get(0)); return 0.0;}, 1))
+                        .with("ifElse",         Function.lazy(args -> args.evaluate(0) != 0.0 ? args.evaluate(1) : args.evaluate(2), 3, true))
+                        .with("and",            Function.lazy(ExpressionContext::and, -1, true))
+                        .with("or",             Function.lazy(ExpressionContext::or, -1, true))
+                        .with("select",         Function.lazy(ExpressionContext::select, -1, true))
+        );
+    }
+
+    // A clock that reads the time on every access cannot be versioned, and two reads within one evaluation may differ,
+    // so its variables are impure suppliers.
+    private static Expression time(SnapshotClock clock, ToDoubleFunction<SnapshotClock> reader) {
+        if (clock.isLive()) return new VariableList.Impure(() -> reader.applyAsDouble(clock));
+        return new ClockVariable(clock, reader);
+    }
+
+    private static final class ClockVariable implements Expression, Versioned {
+        private final SnapshotClock clock;
+        private final ToDoubleFunction<SnapshotClock> reader;
+
+        private ClockVariable(SnapshotClock clock, ToDoubleFunction<SnapshotClock> reader) {
+            this.clock = clock;
+            this.reader = reader;
+        }
+
+        public double evaluate() {
+            return this.reader.applyAsDouble(this.clock);
+        }
+
+        public long getVersion() {
+            return this.clock.getGeneration();
+        }
+    }
+
+    private static double reduce(double[] args, DoubleBinaryOperator operator) {
+        if (args.length == 0) return 0.0;
+        double result = args[0];
+        for (int i = 1; i < args.length; i++) result = operator.applyAsDouble(result, args[i]);
+        return result;
+    }
+
+    private static double and(Function.Arguments args) {
+        for (int i = 0; i < args.size(); i++) {
+            if (args.evaluate(i) != 1.0) return 0.0;
+        }
+        return 1.0;
+    }
+
+    private static double or(Function.Arguments args) {
+        for (int i = 0; i < args.size(); i++) {
+            if (args.evaluate(i) == 1.0) return 1.0;
+        }
+        return 0.0;
+    }
+
+    // select(i, a0, a1, ...) evaluates only a_i, with i rounded down, and is 0.0 when there is no such argument.
+    private static double select(Function.Arguments args) {
+        if (args.size() == 0) return 0.0;
+        double index = Math.floor(args.evaluate(0));
+        if (!(index >= 0.0 && index < args.size() - 1)) return 0.0;
+        return args.evaluate((int) index + 1);
+    }
 
     public static List<Module> DEFAULT_MODULES = Collections.singletonList(STANDARD_MODULE);
             
     public ExpressionContext(ArrayList<Module> modules) {
-        this.modules = modules;
-        this.modules.add(0, ExpressionContext.STANDARD_MODULE);
+        this(modules, SnapshotClock.SYSTEM);
     }
 
-    public List<Module> getModules() {
-        return this.modules;
+    /**
+     * Creates a context whose standard module reads the time from {@code clock} instead of the system clock.
+     */
+    public ExpressionContext(ArrayList<Module> modules, SnapshotClock clock) {
+        this(modules, clock, RandomSource.SYSTEM);
     }
 
-    public boolean addModule(Module module) {
-        return this.modules.add(module);
+    /**
+     * Creates a context whose {@code random} and {@code randomRange} draw from a source seeded with {@code seed}.
+     */
+    public ExpressionContext(ArrayList<Module> modules, long seed) {
+        this(modules, SnapshotClock.SYSTEM, new RandomSource(seed));
     }
 
-    public boolean hasVariable(String name) {
-        Iterator<Module> modules = this.modules.iterator();
+    public ExpressionContext(ArrayList<Module> modules, SnapshotClock clock, RandomSource random) {
+        ArrayList<Module> snapshot = new ArrayList<>(modules.size() + 1);
+        boolean standard = clock == SnapshotClock.SYSTEM && random == RandomSource.SYSTEM;
+        snapshot.add(standard ? ExpressionContext.STANDARD_MODULE : createStandardModule(clock, random));
+        snapshot.addAll(modules);
+        this.clock = clock;
+        this.random = random;
+        this.index = new Index(Collections.unmodifiableList(snapshot), 0);
+    }
 
-        Module module;
-        do {
-            if (!modules.hasNext()) {
-                return false;
-            }
+    /**
+     * Returns an unmodifiable snapshot of the modules; use {@link #addModule(Module)} to change them.
+     */
+    public List<Module> getModules() {
+        return this.index.modules;
+    }
 
-            module = modules.next();
-        } while(!module.hasVariable(name));
+    public SnapshotClock getClock() {
+        return this.clock;
+    }
 
-        return true;
+    public RandomSource getRandom() {
+        return this.random;
     }
 
-    public Expression getVariable(String name) {
-        this.scanVariableConflicts(name);
-        Iterator<Module> modules = this.modules.iterator();
+    /**
+     * Takes a new reading of the context's clock, so every expression evaluated until the next call sees the same time.
+     * Only a context created with a clock that has a tick, such as {@link SnapshotClock#manual(java.time.Clock)}, has
+     * frames.
+     *
+     * @throws IllegalStateException if the context reads the time on every access, as it does by default
+     */
+    public void beginFrame() {
+        if (this.clock.isLive()) throw new IllegalStateException("The context reads the time on every access; create it with a SnapshotClock that has a tick to use frames.");
+        this.clock.refresh();
+    }
 
-        Module module;
-        do {
-            if (!modules.hasNext()) {
-                throw new VariableList.NoSuchVariableException("No variable named \"" + name + "\" is declared.");
-            }
+    public synchronized boolean addModule(Module module) {
+        ArrayList<Module> modules = new ArrayList<>(this.index.modules);
+        modules.add(module);
+        this.index = new Index(Collections.unmodifiableList(modules), this.index.version + 1);
+        return true;
+    }
 
-            module = modules.next();
-        } while(!module.hasVariable(name));
+    /**
+     * Incremented every time the module set changes, so that compiled expressions can be checked against the context
+     * they were compiled with.
+     */
+    public int getVersion() {
+        return this.index.version;
+    }
 
-        return module.getVariable(name);
+    public boolean hasVariable(String name) {
+        Index index = this.index;
+        return index.variables.containsKey(name) || index.variableConflicts.containsKey(name);
     }
 
-    public void scanVariableConflicts(String name) {
-        ArrayList<String> found = new ArrayList<>();
+    public Expression getVariable(String name) {
+        Index index = this.index;
+        // Qualified names cannot conflict.
+        if (Module.qualifier(name, "variable") < 0) scanVariableConflicts(index, name);
+        Expression variable = index.variables.get(name);
+        if (variable == null) throw new VariableList.NoSuchVariableException("No variable named \"" + name + "\" is declared.");
+        return variable;
+    }
 
-        for (Module module : this.modules) {
-            if (module.hasVariable(name)) {
-                found.add(module.getName());
-            }
-        }
+    public void scanVariableConflicts(String name) {
+        scanVariableConflicts(this.index, name);
+    }
 
-        if (found.size() > 1) {
+    private static void scanVariableConflicts(Index index, String name) {
+        ArrayList<String> found = index.variableConflicts.get(name);
+        if (found != null) {
             throw new ConflictException(name, found, "Variable");
         }
     }
 
     public boolean hasFunction(String name, int argCount) {
-        Iterator<Module> modules = this.modules.iterator();
-
-        Module module;
-        do {
-            if (!modules.hasNext()) {
-                return false;
-            }
-
-            module = modules.next();
-        } while(!module.hasFunction(name, argCount));
-
-        return true;
+        Index.Overloads[] overloads = this.index.functions.get(name);
+        if (overloads == null) return false;
+        for (Index.Overloads candidate : overloads) {
+            if (candidate.arities.containsKey(argCount)) return true;
+        }
+        return false;
     }
 
     public Function getFunction(String name, int argCount) {
-        this.scanFunctionConflicts(name, argCount);
-
-        for (Module module : this.modules) {
-            if (module.hasFunction(name, argCount)) return module.getFunction(name, argCount);
-            if (module.hasFunction(name, -1)) return module.getFunction(name, -1);
+        Module.qualifier(name, "function");
+        Index.Overloads[] overloads = this.index.functions.get(name);
+        scanFunctionConflicts(overloads, name, argCount);
+
+        if (overloads != null) {
+            for (Index.Overloads candidate : overloads) {
+                Function function = candidate.arities.get(argCount);
+                if (function != null) return function;
+                if (candidate.varargs != null) return candidate.varargs;
+            }
         }
 
         throw new FunctionList.NoSuchFunctionException("No function named \"" + name + "\" with " + argCount + " argument" + (argCount > 1 ? "s" : "") + " is declared.");
     }
 
     public void scanFunctionConflicts(String name, int argCount) {
+        scanFunctionConflicts(this.index.functions.get(name), name, argCount);
+    }
+
+    private static void scanFunctionConflicts(Index.Overloads[] overloads, String name, int argCount) {
+        if (overloads == null || overloads.length < 2) return;
         ArrayList<String> found = new ArrayList<>();
 
-        for (Module module : this.modules) {
-            if (module.hasFunction(name, argCount)) {
-                found.add(module.getName());
+        for (Index.Overloads candidate : overloads) {
+            if (candidate.arities.containsKey(argCount)) {
+                found.add(candidate.module);
             }
         }
 
@@ -160,8 +301,33 @@ public final class ExpressionContext {
         }
     }
 
+    // Module that resolves an unqualified variable name, or null if the name is qualified or does not resolve to one module.
+    String ownerOfVariable(String name) {
+        Index index = this.index;
+        if (Module.qualifier(name, "variable") >= 0 || index.variableConflicts.containsKey(name)) return null;
+        return index.owners.get(name);
+    }
+
+    // Module whose function getFunction(name, argCount) returns, or null when there is none.
+    String ownerOfFunction(String name, int argCount) {
+        Index.Overloads[] overloads = this.index.functions.get(name);
+        if (overloads == null) return null;
+        for (Index.Overloads candidate : overloads) {
+            if (candidate.arities.containsKey(argCount) || candidate.varargs != null) return candidate.module;
+        }
+        return null;
+    }
+
+    /**
+     * A hash of every module's name, symbols and constant values, used to tell whether a precompiled expression was
+     * made against an equivalent context.
+     */
+    long getFingerprint() {
+        return this.index.fingerprint();
+    }
+
     public String toString() {
-        return "ExpressionContext(modules=" + this.modules + ')';
+        return "ExpressionContext(modules=" + this.index.modules + ')';
     }
 
     public boolean equals(Object other) {
@@ -171,7 +337,7 @@ public final class ExpressionContext {
             return false;
         } else {
             ExpressionContext otherContext = (ExpressionContext) other;
-            return this.modules.equals(otherContext.modules);
+            return this.index.modules.equals(otherContext.index.modules);
         }
     }
 
@@ -179,6 +345,114 @@ public final class ExpressionContext {
         this(new ArrayList<>());
     }
 
+    /**
+     * An immutable snapshot of the module set with every symbol merged into hash maps, qualified names stored next to
+     * unqualified ones. Conflicts are recorded while merging and reported when the conflicting name is looked up.
+     */
+    private static final class Index {
+        private final List<Module> modules;
+        private final int version;
+        private final HashMap<String, Expression> variables = new HashMap<>();
+        private final HashMap<String, ArrayList<String>> variableConflicts = new HashMap<>();
+        private final HashMap<String, String> owners = new HashMap<>();
+        private final HashMap<String, Overloads[]> functions = new HashMap<>();
+        private volatile long fingerprint;
+        private volatile boolean fingerprinted;
+
+        private Index(List<Module> modules, int version) {
+            this.modules = modules;
+            this.version = version;
+            HashMap<String, ArrayList<Overloads>> functions = new HashMap<>();
+            for (Module module : modules) {
+                for (Map.Entry<String, Expression> entry : module.getVariables().getVariables().entrySet()) {
+                    this.addVariable(entry.getKey(), entry.getValue(), module.getName());
+                    this.variables.putIfAbsent(module.getName() + ':' + entry.getKey(), entry.getValue());
+                }
+                HashMap<String, Overloads> moduleFunctions = new HashMap<>();
+                for (Map.Entry<Function.Signature, Function> entry : module.getFunctions().getFunctions().entrySet()) {
+                    moduleFunctions.computeIfAbsent(entry.getKey().name, name -> new Overloads(module.getName())).add(entry.getKey().args, entry.getValue());
+                }
+                for (Map.Entry<String, Overloads> entry : moduleFunctions.entrySet()) {
+                    functions.computeIfAbsent(entry.getKey(), name -> new ArrayList<>()).add(entry.getValue());
+                    functions.computeIfAbsent(module.getName() + ':' + entry.getKey(), name -> new ArrayList<>()).add(entry.getValue());
+                }
+            }
+            for (Map.Entry<String, ArrayList<Overloads>> entry : functions.entrySet()) {
+                this.functions.put(entry.getKey(), entry.getValue().toArray(new Overloads[0]));
+            }
+        }
+
+        private long fingerprint() {
+            if (this.fingerprinted) return this.fingerprint;
+            long hash = 0xcbf29ce484222325L;
+            for (Module module : this.modules) {
+                hash = fnv(hash, module.getName());
+                Map<String, Expression> variables = module.getVariables().getVariables();
+                for (String name : new TreeSet<>(variables.keySet())) {
+                    Expression supplier = variables.get(name);
+                    hash = fnv(hash, name);
+                    if (supplier instanceof Expression.Const) hash = fnv(hash, Double.doubleToLongBits(((Expression.Const) supplier).getConstant()));
+                    else hash = fnv(hash, supplier instanceof VariableList.Impure ? 1L : supplier instanceof VariableList.Pure ? 3L : 2L);
+                }
+                List<Function.Signature> signatures = new ArrayList<>(module.getFunctions().getFunctions().keySet());
+                signatures.sort(Comparator.comparing((Function.Signature signature) -> signature.name).thenComparingInt(signature -> signature.args));
+                for (Function.Signature signature : signatures) {
+                    Function function = module.getFunctions().getFunctions().get(signature);
+                    hash = fnv(hash, signature.name);
+                    hash = fnv(hash, signature.args);
+                    hash = fnv(hash, function.size);
+                    hash = fnv(hash, function.pure ? 1L : 0L);
+                    for (int i = 0; i < Math.max(signature.args, 1); i++) hash = fnv(hash, function.getParameterType(i).ordinal());
+                }
+            }
+            this.fingerprint = hash;
+            this.fingerprinted = true;
+            return hash;
+        }
+
+        private static long fnv(long hash, String value) {
+            for (int i = 0; i < value.length(); i++) hash = (hash ^ value.charAt(i)) * 0x100000001b3L;
+            return (hash ^ 0xff) * 0x100000001b3L;
+        }
+
+        private static long fnv(long hash, long value) {
+            for (int i = 0; i < 8; i++) hash = (hash ^ ((value >>> (i * 8)) & 0xff)) * 0x100000001b3L;
+            return hash;
+        }
+
+        private void addVariable(String name, Expression supplier, String module) {
+            String owner = this.owners.putIfAbsent(name, module);
+            if (owner == null) {
+                this.variables.put(name, supplier);
+                return;
+            }
+            ArrayList<String> conflicts = this.variableConflicts.get(name);
+            if (conflicts == null) {
+                conflicts = new ArrayList<>();
+                conflicts.add(owner);
+                this.variableConflicts.put(name, conflicts);
+                this.variables.remove(name);
+            }
+            conflicts.add(module);
+        }
+
+        // The functions of one module that share a name, by arity.
+        private static final class Overloads {
+            private final String module;
+            private final HashMap<Integer, Function> arities = new HashMap<>();
+            private Function varargs;
+
+            private Overloads(String module) {
+                this.module = module;
+            }
+
+            private void add(int arity, Function function) {
+                this.arities.put(arity, function);
+                if (arity == -1) this.varargs = function;
+            }
+        }
+    }
+
     public static final class ConflictException extends RuntimeException {
         public ConflictException(String variable, ArrayList<String> modules, String type) {
             super(generateMessage(variable, modules, type));
@@ -0,0 +1,361 @@
+package celestialexpressions;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * The binary form of a compiled expression: the tree in postfix order with a constant pool and a symbol table.
+ * <pre>
+ * int    magic "CEXP"
+ * short  format version
+ * short  reserved, 0
+ * long   fingerprint of the context the expression was compiled against
+ * int    length of everything up to the checksum
+ * string source, possibly empty
+ * int    constant count, then every constant as a double
+ * int    symbol count, then every symbol as: byte kind, int arity or parameter index, string name, string module
+ * int    instruction count, then every instruction as an int: operand << 8 | opcode
+ * int    CRC32 of everything before it
+ * </pre>
+ * Strings are an int byte count followed by UTF-8. Variables and functions are stored under the name they were written
+ * as and the module that provided them, and are looked up by their qualified name when loaded.
+ */
+final class ExpressionFormat {
+    static final int MAGIC = 0x43455850;
+    static final short VERSION = 1;
+
+    private static final byte VARIABLE = 0;
+    private static final byte FUNCTION = 1;
+    private static final byte STRING = 2;
+    private static final byte PARAMETER = 3;
+
+    private static final int CONST = 0;
+    private static final int VAR = 1;
+    private static final int CALL = 2;
+    private static final int STRING_ARGUMENT = 3;
+    private static final int NEGATE = 4;
+    private static final int ADD = 5;
+    private static final int SUB = 6;
+    private static final int MUL = 7;
+    private static final int DIV = 8;
+    private static final int POW = 9;
+    private static final int AND = 10;
+    private static final int OR = 11;
+    private static final int EQ = 12;
+    private static final int GTR = 13;
+    private static final int LSS = 14;
+    private static final int PARAM = 15;
+
+    private static final int MAX_OPERAND = (1 << 24) - 1;
+
+    private ExpressionFormat() {}
+
+    static ByteBuffer encode(String source, Expression expression, ExpressionContext context) {
+        if (expression instanceof CompiledForm) expression = ((CompiledForm) expression).getSource();
+        Encoder encoder = new Encoder(context);
+        encoder.write(expression);
+
+        byte[] sourceBytes = source.getBytes(StandardCharsets.UTF_8);
+        int size = 4 + 2 + 2 + 8 + 4 + 4 + sourceBytes.length
+                + 4 + encoder.constants.size() * 8
+                + 4 + encoder.symbolBytes()
+                + 4 + encoder.code.size() * 4
+                + 4;
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(MAGIC);
+        buffer.putShort(VERSION);
+        buffer.putShort((short) 0);
+        buffer.putLong(context.getFingerprint());
+        buffer.putInt(size - 24);
+        putBytes(buffer, sourceBytes);
+        buffer.putInt(encoder.constants.size());
+        for (double constant : encoder.constants) buffer.putDouble(constant);
+        buffer.putInt(encoder.symbols.size());
+        for (Symbol symbol : encoder.symbols) {
+            buffer.put(symbol.kind);
+            buffer.putInt(symbol.arity);
+            putBytes(buffer, symbol.name.getBytes(StandardCharsets.UTF_8));
+            putBytes(buffer, symbol.module.getBytes(StandardCharsets.UTF_8));
+        }
+        buffer.putInt(encoder.code.size());
+        for (int instruction : encoder.code) buffer.putInt(instruction);
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.putInt((int) crc.getValue());
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Returns the source stored in {@code buffer}, after checking the header and checksum.
+     */
+    static String readSource(ByteBuffer buffer) {
+        ByteBuffer data = checked(buffer);
+        return getString(data);
+    }
+
+    static Expression decode(ByteBuffer buffer, ExpressionContext context) {
+        ByteBuffer data = checked(buffer);
+        if (buffer.getLong(buffer.position() + 8) != context.getFingerprint()) {
+            throw new ExpressionCompiler.PrecompiledFormatException("Precompiled expression was made against a different set of modules.");
+        }
+        try {
+            getString(data);
+            double[] constants = new double[count(data, 8)];
+            for (int i = 0; i < constants.length; i++) constants[i] = data.getDouble();
+            Object[] symbols = new Object[count(data, 13)];
+            int[] arities = new int[symbols.length];
+            String[] names = new String[symbols.length];
+            for (int i = 0; i < symbols.length; i++) {
+                byte kind = data.get();
+                arities[i] = data.getInt();
+                names[i] = getString(data);
+                String module = getString(data);
+                String qualified = module.isEmpty() ? names[i] : module + ':' + names[i];
+                switch (kind) {
+                    case VARIABLE: symbols[i] = context.getVariable(qualified); break;
+                    case FUNCTION: symbols[i] = function(qualified, names[i], arities[i], context); break;
+                    case STRING: symbols[i] = new Expression.SExpression.Const(names[i]); break;
+                    case PARAMETER: symbols[i] = new Expression.Param(names[i], arities[i]); break;
+                    default: throw new ExpressionCompiler.PrecompiledFormatException("Unknown symbol kind " + kind + ".");
+                }
+            }
+            int[] code = new int[count(data, 4)];
+            for (int i = 0; i < code.length; i++) code[i] = data.getInt();
+            return build(code, constants, symbols, arities, names);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | ClassCastException e) {
+            throw new ExpressionCompiler.PrecompiledFormatException("Precompiled expression is malformed.");
+        }
+    }
+
+    private static Function function(String qualified, String name, int arity, ExpressionContext context) {
+        Function function = context.getFunction(qualified, arity);
+        if (function.size != arity && function.size >= 0) {
+            throw new ExpressionCompiler.PrecompiledFormatException("Function \"" + name + "\" no longer takes " + arity + " parameters.");
+        }
+        return function;
+    }
+
+    private static Expression build(int[] code, double[] constants, Object[] symbols, int[] arities, String[] names) {
+        IExpression<?>[] stack = new IExpression<?>[code.length];
+        int size = 0;
+        for (int instruction : code) {
+            int operand = instruction >>> 8;
+            switch (instruction & 0xff) {
+                case CONST:
+                    stack[size++] = new Expression.Const(constants[operand]);
+                    break;
+                case VAR:
+                    stack[size++] = new Expression.Var(names[operand], (Expression) symbols[operand]);
+                    break;
+                case STRING_ARGUMENT:
+                    stack[size++] = (Expression.SExpression.Const) symbols[operand];
+                    break;
+                case PARAM:
+                    stack[size++] = (Expression.Param) symbols[operand];
+                    break;
+                case CALL: {
+                    int arity = arities[operand];
+                    if (arity > size) throw new ExpressionCompiler.PrecompiledFormatException("Precompiled expression is malformed.");
+                    ArrayList<IExpression<?>> params = new ArrayList<>(arity);
+                    for (int i = size - arity; i < size; i++) params.add(stack[i]);
+                    size -= arity;
+                    stack[size++] = new Expression.Fun(names[operand], (Function) symbols[operand], params);
+                    break;
+                }
+                case NEGATE:
+                    stack[size - 1] = new Expression.Negate((Expression) stack[size - 1]);
+                    break;
+                default: {
+                    Expression rhs = (Expression) stack[--size];
+                    Expression lhs = (Expression) stack[size - 1];
+                    stack[size - 1] = binary(instruction & 0xff, lhs, rhs);
+                }
+            }
+        }
+        if (size != 1 || !(stack[0] instanceof Expression)) {
+            throw new ExpressionCompiler.PrecompiledFormatException("Precompiled expression is malformed.");
+        }
+        return (Expression) stack[0];
+    }
+
+    private static Expression binary(int opcode, Expression lhs, Expression rhs) {
+        switch (opcode) {
+            case ADD: return new Expression.Add(lhs, rhs);
+            case SUB: return new Expression.Sub(lhs, rhs);
+            case MUL: return new Expression.Mul(lhs, rhs);
+            case DIV: return new Expression.Div(lhs, rhs);
+            case POW: return new Expression.Pow(lhs, rhs);
+            case AND: return new Expression.And(lhs, rhs);
+            case OR: return new Expression.Or(lhs, rhs);
+            case EQ: return new Expression.Eq(lhs, rhs);
+            case GTR: return new Expression.Gtr(lhs, rhs);
+            case LSS: return new Expression.Lss(lhs, rhs);
+            default: throw new ExpressionCompiler.PrecompiledFormatException("Unknown instruction " + opcode + ".");
+        }
+    }
+
+    // Checks the header and checksum and returns a view of the payload, leaving the position of buffer alone.
+    private static ByteBuffer checked(ByteBuffer buffer) {
+        int start = buffer.position();
+        if (buffer.remaining() < 28 || buffer.getInt(start) != MAGIC) {
+            throw new ExpressionCompiler.PrecompiledFormatException("Not a precompiled expression.");
+        }
+        short version = buffer.getShort(start + 4);
+        if (version != VERSION) {
+            throw new ExpressionCompiler.PrecompiledFormatException("Precompiled expression has format version " + version + ", expected " + VERSION + ".");
+        }
+        int length = buffer.getInt(start + 16);
+        if (length < 0 || length > buffer.remaining() - 24) {
+            throw new ExpressionCompiler.PrecompiledFormatException("Precompiled expression is truncated.");
+        }
+        ByteBuffer checked = buffer.duplicate();
+        checked.limit(start + 20 + length);
+        CRC32 crc = new CRC32();
+        crc.update(checked);
+        if ((int) crc.getValue() != buffer.getInt(start + 20 + length)) {
+            throw new ExpressionCompiler.PrecompiledFormatException("Precompiled expression failed its checksum.");
+        }
+        ByteBuffer data = buffer.duplicate();
+        data.position(start + 20);
+        data.limit(start + 20 + length);
+        return data.slice();
+    }
+
+    // Reads a count and checks that that many entries of at least entrySize bytes can follow.
+    private static int count(ByteBuffer data, int entrySize) {
+        int count = data.getInt();
+        if (count < 0 || (long) count * entrySize > data.remaining()) throw new BufferUnderflowException();
+        return count;
+    }
+
+    private static void putBytes(ByteBuffer buffer, byte[] bytes) {
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static String getString(ByteBuffer data) {
+        byte[] bytes = new byte[count(data, 1)];
+        data.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static final class Symbol {
+        private final byte kind;
+        private final int arity;
+        private final String name;
+        private final String module;
+
+        private Symbol(byte kind, int arity, String name, String module) {
+            this.kind = kind;
+            this.arity = arity;
+            this.name = name;
+            this.module = module;
+        }
+    }
+
+    private static final class Encoder {
+        private final ExpressionContext context;
+        private final List<Double> constants = new ArrayList<>();
+        private final Map<Long, Integer> constantIndex = new HashMap<>();
+        private final List<Symbol> symbols = new ArrayList<>();
+        private final Map<String, Integer> symbolIndex = new HashMap<>();
+        private final List<Integer> code = new ArrayList<>();
+
+        private Encoder(ExpressionContext context) {
+            this.context = context;
+        }
+
+        private int symbolBytes() {
+            int size = 0;
+            for (Symbol symbol : this.symbols) {
+                size += 1 + 4 + 4 + symbol.name.getBytes(StandardCharsets.UTF_8).length + 4 + symbol.module.getBytes(StandardCharsets.UTF_8).length;
+            }
+            return size;
+        }
+
+        private void write(Expression node) {
+            Class<?> type = node.getClass();
+            if (type == Expression.Const.class) {
+                double constant = ((Expression.Const) node).getConstant();
+                Integer index = this.constantIndex.get(Double.doubleToRawLongBits(constant));
+                if (index == null) {
+                    index = this.constants.size();
+                    this.constants.add(constant);
+                    this.constantIndex.put(Double.doubleToRawLongBits(constant), index);
+                }
+                this.emit(CONST, index);
+            } else if (type == Expression.Var.class) {
+                String id = ((Expression.Var) node).getId();
+                String module = this.context.ownerOfVariable(id);
+                this.emit(VAR, this.symbol(VARIABLE, 0, id, module == null ? "" : module));
+            } else if (type == Expression.Param.class) {
+                Expression.Param param = (Expression.Param) node;
+                this.emit(PARAM, this.symbol(PARAMETER, param.getIndex(), param.getName(), ""));
+            } else if (type == Expression.Negate.class) {
+                this.write(((Expression.Negate) node).getExpression());
+                this.emit(NEGATE, 0);
+            } else if (node instanceof Expression.BinaryOperator) {
+                Expression.BinaryOperator operator = (Expression.BinaryOperator) node;
+                int opcode = opcode(type);
+                this.write(operator.getLHS());
+                this.write(operator.getRHS());
+                this.emit(opcode, 0);
+            } else if (type == Expression.Fun.class) {
+                Expression.Fun function = (Expression.Fun) node;
+                String name = function.getName();
+                if (name == null) throw new ExpressionCompiler.PrecompiledFormatException("Cannot store a call to a function without a name.");
+                for (IExpression<?> param : function.getParams()) {
+                    if (param instanceof Expression) this.write((Expression) param);
+                    else if (param instanceof Expression.SExpression.Const) {
+                        this.emit(STRING_ARGUMENT, this.symbol(STRING, 0, ((Expression.SExpression.Const) param).str, ""));
+                    } else throw new ExpressionCompiler.PrecompiledFormatException("Cannot store argument " + param + ".");
+                }
+                int arity = function.getParams().size();
+                if (FastMath.isApproximation(function.getFunction())) {
+                    throw new ExpressionCompiler.PrecompiledFormatException("Cannot store the approximated \"" + name + "\" of an expression compiled with fast precision.");
+                }
+                String module = Module.qualifier(name, "function") >= 0 ? null : this.context.ownerOfFunction(name, arity);
+                this.emit(CALL, this.symbol(FUNCTION, arity, name, module == null ? "" : module));
+            } else {
+                throw new ExpressionCompiler.PrecompiledFormatException("Cannot store " + type.getName() + " nodes.");
+            }
+        }
+
+        private static int opcode(Class<?> type) {
+            if (type == Expression.Add.class) return ADD;
+            if (type == Expression.Sub.class) return SUB;
+            if (type == Expression.Mul.class) return MUL;
+            if (type == Expression.Div.class) return DIV;
+            if (type == Expression.Pow.class) return POW;
+            if (type == Expression.And.class) return AND;
+            if (type == Expression.Or.class) return OR;
+            if (type == Expression.Eq.class) return EQ;
+            if (type == Expression.Gtr.class) return GTR;
+            if (type == Expression.Lss.class) return LSS;
+            throw new ExpressionCompiler.PrecompiledFormatException("Cannot store " + type.getName() + " nodes.");
+        }
+
+        private int symbol(byte kind, int arity, String name, String module) {
+            String key = kind + ":" + arity + ":" + module + ":" + name;
+            Integer index = this.symbolIndex.get(key);
+            if (index == null) {
+                index = this.symbols.size();
+                this.symbols.add(new Symbol(kind, arity, name, module));
+                this.symbolIndex.put(key, index);
+            }
+            return index;
+        }
+
+        private void emit(int opcode, int operand) {
+            if (operand > MAX_OPERAND) throw new ExpressionCompiler.PrecompiledFormatException("Expression has too many constants or symbols to store.");
+            this.code.add(operand << 8 | opcode);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package celestialexpressions;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Expressions that are evaluated together, with the subexpressions they have in common computed once. Pure subtrees
+ * that appear more than once, within one expression or across several, are merged into a single node that is
+ * evaluated at most once per call to {@link #evaluate(double[])}. Each member can also be evaluated on its own, in which
+ * case repeated subtrees inside it are still only computed once.
+ * <p>
+ * A group remembers the values of its shared nodes, so it must only be evaluated by one thread at a time.
+ */
+public final class ExpressionGroup {
+    private final List<String> keys;
+    private final Expression[] roots;
+    private final Map<String, Expression> members;
+    private final SubexpressionEliminator.Cycle cycle = new SubexpressionEliminator.Cycle();
+    private final int shared;
+
+    private ExpressionGroup(Map<String, Expression> expressions) {
+        List<Expression> sources = new ArrayList<>(expressions.size());
+        for (Expression expression : expressions.values()) {
+            if (expression instanceof CompiledForm) expression = ((CompiledForm) expression).getSource();
+            sources.add(expression);
+        }
+        SubexpressionEliminator eliminator = new SubexpressionEliminator(this.cycle);
+        List<Expression> roots = eliminator.eliminate(sources);
+        this.keys = Collections.unmodifiableList(new ArrayList<>(expressions.keySet()));
+        this.roots = roots.toArray(new Expression[0]);
+        Map<String, Expression> members = new LinkedHashMap<>();
+        for (int i = 0; i < this.roots.length; i++) members.put(this.keys.get(i), new Member(this.roots[i], sources.get(i)));
+        this.members = Collections.unmodifiableMap(members);
+        this.shared = eliminator.getSharedCount();
+    }
+
+    /**
+     * Groups already compiled expressions. Expressions from the bytecode or postfix backend are grouped by their source trees.
+     */
+    public static ExpressionGroup of(Map<String, Expression> expressions) {
+        return new ExpressionGroup(expressions);
+    }
+
+    public static ExpressionGroup compile(Map<String, String> sources, ExpressionContext context) {
+        Map<String, Expression> expressions = new LinkedHashMap<>();
+        for (Map.Entry<String, String> entry : sources.entrySet()) {
+            expressions.put(entry.getKey(), ExpressionCompiler.compile(entry.getValue(), context));
+        }
+        return new ExpressionGroup(expressions);
+    }
+
+    public List<String> getKeys() {
+        return this.keys;
+    }
+
+    public int size() {
+        return this.roots.length;
+    }
+
+    /**
+     * How many nodes are shared between two or more places of the group.
+     */
+    public int getSharedCount() {
+        return this.shared;
+    }
+
+    public Expression get(String key) {
+        return this.members.get(key);
+    }
+
+    public Map<String, Expression> getExpressions() {
+        return this.members;
+    }
+
+    /**
+     * Evaluates every member into {@code out}, in the order of {@link #getKeys()}.
+     */
+    public void evaluate(double[] out) {
+        if (out.length < this.roots.length) throw new IllegalArgumentException("Output has room for " + out.length + " results, but the group has " + this.roots.length + " expressions.");
+        this.cycle.current++;
+        for (int i = 0; i < this.roots.length; i++) out[i] = this.roots[i].evaluate();
+    }
+
+    public double[] evaluate() {
+        double[] out = new double[this.roots.length];
+        this.evaluate(out);
+        return out;
+    }
+
+    /**
+     * Evaluates every member with the same parameter values {@code args} into {@code out}, in the order of
+     * {@link #getKeys()}. Parameters are matched by position, so members should declare the same parameters.
+     */
+    public void evaluate(double[] args, double[] out) {
+        if (out.length < this.roots.length) throw new IllegalArgumentException("Output has room for " + out.length + " results, but the group has " + this.roots.length + " expressions.");
+        this.cycle.current++;
+        for (int i = 0; i < this.roots.length; i++) out[i] = this.roots[i].evaluate(args);
+    }
+
+    @Override
+    public String toString() {
+        return "ExpressionGroup(size=" + this.roots.length + ", shared=" + this.shared + ')';
+    }
+
+    final class Member implements Expression {
+        private final Expression root;
+        private final Expression source;
+
+        private Member(Expression root, Expression source) {
+            this.root = root;
+            this.source = source;
+        }
+
+        public double evaluate() {
+            ExpressionGroup.this.cycle.current++;
+            return this.root.evaluate();
+        }
+
+        public double evaluate(double[] args) {
+            ExpressionGroup.this.cycle.current++;
+            return this.root.evaluate(args);
+        }
+
+        Expression getSource() {
+            return this.source;
+        }
+
+        @Override
+        public String toString() {
+            return this.source.toString();
+        }
+    }
+}
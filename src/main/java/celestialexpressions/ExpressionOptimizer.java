@@ -0,0 +1,90 @@
+package celestialexpressions;
+
+import java.util.ArrayList;
+
+/**
+ * Folds constant subtrees and applies the algebraic identities that give bit-identical results under IEEE 754.
+ * Impure functions and impure variables are never folded or duplicated.
+ */
+final class ExpressionOptimizer {
+    private ExpressionOptimizer() {}
+
+    static Expression optimize(Expression expression) {
+        if (expression instanceof Expression.Var) {
+            Expression.Var variable = (Expression.Var) expression;
+            if (variable.isConstant()) return new Expression.Const(variable.getSupplier().evaluate());
+            return variable;
+        }
+        if (expression instanceof Expression.UnaryOperator) return optimizeUnary((Expression.UnaryOperator) expression);
+        if (expression instanceof Expression.BinaryOperator) return optimizeBinary((Expression.BinaryOperator) expression);
+        if (expression instanceof Expression.Fun) return optimizeFunction((Expression.Fun) expression);
+        return expression;
+    }
+
+    private static Expression optimizeUnary(Expression.UnaryOperator operator) {
+        Expression operand = optimize(operator.getExpression());
+        Expression.UnaryOperator result = operand == operator.getExpression() ? operator : operator.copy(operand);
+        if (operand instanceof Expression.Const) return fold(result);
+        return result;
+    }
+
+    private static Expression optimizeBinary(Expression.BinaryOperator operator) {
+        Expression lhs = optimize(operator.getLHS());
+        Expression rhs = optimize(operator.getRHS());
+        Expression.BinaryOperator result = lhs == operator.getLHS() && rhs == operator.getRHS() ? operator : operator.copy(lhs, rhs);
+        if (lhs instanceof Expression.Const && rhs instanceof Expression.Const) return fold(result);
+
+        Class<?> type = operator.getClass();
+        if (type == Expression.And.class && lhs instanceof Expression.Const && !isConstant(lhs, 1.0)) return new Expression.Const(0.0);
+        if (type == Expression.Or.class && isConstant(lhs, 1.0)) return new Expression.Const(1.0);
+        if (type == Expression.Mul.class) {
+            if (isConstant(rhs, 1.0)) return lhs;
+            if (isConstant(lhs, 1.0)) return rhs;
+        }
+        if (type == Expression.Div.class && isConstant(rhs, 1.0)) return lhs;
+        // x + 0.0 is not an identity because -0.0 + 0.0 is 0.0, but adding -0.0 or subtracting 0.0 is.
+        if (type == Expression.Add.class) {
+            if (isConstant(rhs, -0.0)) return lhs;
+            if (isConstant(lhs, -0.0)) return rhs;
+        }
+        if (type == Expression.Sub.class && isConstant(rhs, 0.0)) return lhs;
+        if (type == Expression.Pow.class) {
+            if (isConstant(rhs, 1.0)) return lhs;
+            // Math.pow(x, 2.0) is exactly x * x, but only where both reads are certain to agree: parameters, and variables
+            // declared repeatable. A host variable may be set by another thread between the two reads.
+            if (isConstant(rhs, 2.0) && (lhs instanceof Expression.Param || lhs instanceof Expression.Var && ((Expression.Var) lhs).isRepeatable())) {
+                return new Expression.Mul(lhs, lhs);
+            }
+        }
+        return result;
+    }
+
+    private static Expression optimizeFunction(Expression.Fun function) {
+        ArrayList<IExpression<?>> params = new ArrayList<>(function.getParams().size());
+        boolean changed = false;
+        boolean constant = true;
+        for (IExpression<?> param : function.getParams()) {
+            IExpression<?> optimized = param instanceof Expression ? optimize((Expression) param) : param;
+            changed |= optimized != param;
+            constant &= optimized instanceof Expression.Const || optimized instanceof Expression.SExpression.Const;
+            params.add(optimized);
+        }
+        Expression.Fun result = changed ? new Expression.Fun(function.getName(), function.getFunction(), params) : function;
+        if (constant && function.getFunction().isPure()) return fold(result);
+        return result;
+    }
+
+    // Folding never changes when an error is reported: anything that fails here is left to fail on evaluation.
+    private static Expression fold(Expression expression) {
+        try {
+            return new Expression.Const(expression.evaluate());
+        } catch (RuntimeException e) {
+            return expression;
+        }
+    }
+
+    private static boolean isConstant(Expression expression, double value) {
+        return expression instanceof Expression.Const &&
+               Double.doubleToLongBits(((Expression.Const) expression).getConstant()) == Double.doubleToLongBits(value);
+    }
+}
@@ -0,0 +1,219 @@
+package celestialexpressions;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Single-pass precedence-climbing parser over a token cursor. From loosest to tightest binding the grammar is:
+ * comparisons and logic operators, '+' and '-', '*' and '/', '^', unary minus, and implicit multiplication of
+ * juxtaposed values. All binary operators are left associative.
+ * <p>
+ * Types are checked as the tree is built. Every node is a number except string literals, which may only be passed to
+ * function parameters declared as {@link Function.Type#STRING} or {@link Function.Type#ANY}.
+ */
+final class ExpressionParser {
+    private final List<Token> tokens;
+    private final ExpressionContext context;
+    private final List<String> parameters;
+    private int position;
+    // Splitters separate function arguments, everywhere else they are ignored.
+    private boolean splitterEnds;
+
+    private ExpressionParser(List<Token> tokens, ExpressionContext context, List<String> parameters) {
+        this.tokens = tokens;
+        this.context = context;
+        this.parameters = parameters;
+    }
+
+    static Expression parse(List<Token> tokens, ExpressionContext context) {
+        return parse(tokens, context, Collections.emptyList());
+    }
+
+    /**
+     * @param parameters names that refer to the argument at their position instead of a variable of the context.
+     */
+    static Expression parse(List<Token> tokens, ExpressionContext context, List<String> parameters) {
+        ExpressionParser parser = new ExpressionParser(tokens, context, parameters);
+        IExpression<?> expression = parser.parseExpression(0);
+        if (parser.position < tokens.size()) {
+            throw new ExpressionCompiler.InvalidExpressionException("Unexpected \"" + tokens.get(parser.position).text + "\" in expression.");
+        }
+        if (!(expression instanceof Expression)) {
+            throw new ExpressionCompiler.InvalidExpressionException("Expression must be a number, not " + describe(expression) + ".");
+        }
+        return (Expression) expression;
+    }
+
+    private Token peek() {
+        while (this.position < this.tokens.size()) {
+            Token token = this.tokens.get(this.position);
+            if (token.type != Token.Type.SPLITTER || this.splitterEnds) return token;
+            this.position++;
+        }
+        return null;
+    }
+
+    private IExpression<?> parseExpression(int minimumPrecedence) {
+        IExpression<?> lhs = this.parseOperand();
+        while (true) {
+            Token token = this.peek();
+            if (token == null || token.type != Token.Type.BINARY) return lhs;
+            int precedence = precedence(token.text);
+            if (precedence < minimumPrecedence) return lhs;
+            this.position++;
+            IExpression<?> rhs = this.parseExpression(precedence + 1);
+            lhs = binary(token.text, operand(lhs, token.text), operand(rhs, token.text));
+        }
+    }
+
+    private IExpression<?> parseOperand() {
+        Token token = this.peek();
+        if (token != null && token.type == Token.Type.UNARY) {
+            this.position++;
+            return new Expression.Negate(operand(this.parseOperand(), "-"));
+        }
+        IExpression<?> operand = this.parsePrimary();
+        while (true) {
+            Token next = this.peek();
+            if (next == null || !startsPrimary(next)) return operand;
+            operand = new Expression.Mul(operand(operand, "*"), operand(this.parsePrimary(), "*"));
+        }
+    }
+
+    private IExpression<?> parsePrimary() {
+        Token token = this.peek();
+        if (token == null || token.type == Token.Type.GROUPING_END || token.type == Token.Type.SPLITTER) {
+            throw new ExpressionCompiler.InvalidExpressionException("Expression must have a value.");
+        }
+        this.position++;
+        switch (token.type) {
+            case GROUPING_START:
+                if (token.text.equals("(")) return this.parseGroup();
+                return this.parseFunction(token.text);
+            case UNARY:
+                return new Expression.Negate(operand(this.parseOperand(), "-"));
+            case BINARY:
+                throw new ExpressionCompiler.InvalidExpressionException("Operator \"" + token.text + "\" is missing its left-hand side.");
+            case VARIABLE:
+            case NULLARY: {
+                int index = this.parameters.indexOf(token.text);
+                if (index >= 0) return new Expression.Param(token.text, index);
+                return token.getExpression(this.context);
+            }
+            default:
+                return token.getExpression(this.context);
+        }
+    }
+
+    private IExpression<?> parseGroup() {
+        boolean splitterEnds = this.splitterEnds;
+        this.splitterEnds = false;
+        IExpression<?> expression = this.parseExpression(0);
+        this.splitterEnds = splitterEnds;
+        this.expect(Token.Type.GROUPING_END);
+        return expression;
+    }
+
+    private Expression parseFunction(String name) {
+        boolean splitterEnds = this.splitterEnds;
+        this.splitterEnds = true;
+        ArrayList<IExpression<?>> params = new ArrayList<>();
+        do {
+            params.add(this.parseExpression(0));
+        } while (this.expect(Token.Type.SPLITTER, Token.Type.GROUPING_END).type == Token.Type.SPLITTER);
+        this.splitterEnds = splitterEnds;
+
+        Function function = this.context.getFunction(name, params.size());
+        if (function.size != params.size() && function.size >= 0.0) {
+            StringBuilder message = new StringBuilder();
+            message.append("Function \"");
+            message.append(name);
+            message.append("\" takes ");
+            message.append(function.size);
+            if (function.size == 1) message.append(" parameter");
+            else message.append(" parameters");
+            message.append(", but ");
+            message.append(params.size());
+            message.append(" were provided.");
+            throw new ExpressionCompiler.InvalidExpressionException(message.toString());
+        }
+        for (int i = 0; i < params.size(); i++) {
+            Function.Type expected = function.getParameterType(i);
+            if (!expected.accepts(typeOf(params.get(i)))) {
+                throw new ExpressionCompiler.InvalidExpressionException("Argument " + (i + 1) + " of function \"" + name + "\" must be a " +
+                        expected.name().toLowerCase() + ", not " + describe(params.get(i)) + ".");
+            }
+        }
+        return new Expression.Fun(name, function, params);
+    }
+
+    private static Expression operand(IExpression<?> operand, String operator) {
+        if (operand instanceof Expression) return (Expression) operand;
+        throw new ExpressionCompiler.InvalidExpressionException("Operator \"" + operator + "\" takes numbers, not " + describe(operand) + ".");
+    }
+
+    private static Function.Type typeOf(IExpression<?> node) {
+        return node instanceof Expression ? Function.Type.NUMBER : Function.Type.STRING;
+    }
+
+    private static String describe(IExpression<?> node) {
+        if (node instanceof Expression) return "a number";
+        if (node instanceof Expression.SExpression.Const) return "the string \"" + ((Expression.SExpression.Const) node).str + "\"";
+        return "a string";
+    }
+
+    private Token expect(Token.Type... types) {
+        if (this.position < this.tokens.size()) {
+            Token token = this.tokens.get(this.position);
+            for (Token.Type type : types) {
+                if (token.type == type) {
+                    this.position++;
+                    return token;
+                }
+            }
+            throw new ExpressionCompiler.InvalidExpressionException("Unexpected \"" + token.text + "\" in expression.");
+        }
+        throw new ExpressionCompiler.InvalidExpressionException("Grouping symbols are not balanced.");
+    }
+
+    private static boolean startsPrimary(Token token) {
+        switch (token.type) {
+            case CONST:
+            case VARIABLE:
+            case NULLARY:
+            case STRING_LITERAL:
+            case GROUPING_START:
+            case UNARY:
+                return true;
+            default: return false;
+        }
+    }
+
+    private static int precedence(String operator) {
+        switch (operator) {
+            case "^": return 4;
+            case "*":
+            case "/": return 3;
+            case "+":
+            case "-": return 2;
+            default: return 1;
+        }
+    }
+
+    static Expression.BinaryOperator binary(String operator, Expression lhs, Expression rhs) {
+        switch (operator) {
+            case "+": return new Expression.Add(lhs, rhs);
+            case "-": return new Expression.Sub(lhs, rhs);
+            case "*": return new Expression.Mul(lhs, rhs);
+            case "/": return new Expression.Div(lhs, rhs);
+            case "^": return new Expression.Pow(lhs, rhs);
+            case "&": return new Expression.And(lhs, rhs);
+            case "|": return new Expression.Or(lhs, rhs);
+            case "=": return new Expression.Eq(lhs, rhs);
+            case ">": return new Expression.Gtr(lhs, rhs);
+            case "<": return new Expression.Lss(lhs, rhs);
+            default: throw new Token.ParsingException("Invalid character was not caught. Please report this exception.");
+        }
+    }
+}
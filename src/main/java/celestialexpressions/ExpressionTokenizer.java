@@ -5,6 +5,159 @@ import java.util.ListIterator;
 import java.util.regex.Pattern;
 
 public class ExpressionTokenizer {
+    /**
+     * Splits the source into tokens in a single pass. Whitespace and '#' outside of string literals are ignored
+     * entirely, so they may even appear inside names and numbers.
+     */
+    public static ArrayList<Token> tokenize(String input) {
+        ArrayList<Token> out = new ArrayList<>();
+        int length = input.length();
+        int i = 0;
+        while (i < length) {
+            char c = input.charAt(i);
+            if (isIgnored(c)) i++;
+            else if (isQuote(c)) i = readString(input, i + 1, out);
+            else if (isDigit(c) || c == '.') i = readConstant(input, i, out);
+            else if (isOperator(c)) {
+                out.add(readOperator(c, out));
+                i++;
+            }
+            else i = readIdentifier(input, i, out);
+        }
+        return out;
+    }
+
+    private static int readString(String input, int start, ArrayList<Token> out) {
+        int i = start;
+        while (i < input.length() && !(isQuote(input.charAt(i)) && input.charAt(i - 1) != '\\')) i++;
+        out.add(new Token(Token.Type.STRING_LITERAL, input.substring(start, i)));
+        return i + 1;
+    }
+
+    private static int readConstant(String input, int start, ArrayList<Token> out) {
+        int i = start;
+        int end = start;
+        int dots = 0;
+        boolean skipped = false;
+        boolean split = false;
+        while (i < input.length()) {
+            char c = input.charAt(i);
+            if (isDigit(c) || c == '.') {
+                if (c == '.' && ++dots > 1) throw new Token.ParsingException("Multiple periods in one decimal number at index " + i + ".");
+                split |= skipped;
+                end = ++i;
+            } else if (isIgnored(c)) {
+                skipped = true;
+                i++;
+            } else break;
+        }
+        out.add(new Token(Token.Type.CONST, text(input, start, end, split)));
+        return i;
+    }
+
+    // A name directly followed by '(' is a function call, unless it contains a digit.
+    private static int readIdentifier(String input, int start, ArrayList<Token> out) {
+        int i = start;
+        int end = start;
+        boolean digits = false;
+        boolean skipped = false;
+        boolean split = false;
+        while (i < input.length()) {
+            char c = input.charAt(i);
+            if (isIgnored(c)) {
+                skipped = true;
+                i++;
+            } else if (isOperator(c) || isQuote(c) || c == '.') break;
+            else {
+                digits |= isDigit(c);
+                split |= skipped;
+                end = ++i;
+            }
+        }
+        String name = text(input, start, end, split);
+        if (i < input.length() && input.charAt(i) == '.') throw new Token.ParsingException("Unexpected '.' after \"" + name + "\" at index " + i + ".");
+        if (!digits && i < input.length() && input.charAt(i) == '(') {
+            out.add(new Token(Token.Type.GROUPING_START, name));
+            return i + 1;
+        }
+        out.add(new Token(Token.Type.VARIABLE, name));
+        return i;
+    }
+
+    private static Token readOperator(char c, ArrayList<Token> out) {
+        switch (c) {
+            case '(': return new Token(Token.Type.GROUPING_START, "(");
+            case ')': return new Token(Token.Type.GROUPING_END, ")");
+            case ',': return new Token(Token.Type.SPLITTER, ",");
+            case '-':
+                if (out.isEmpty()) return new Token(Token.Type.UNARY, "-");
+                switch (out.get(out.size() - 1).type) {
+                    case BINARY:
+                    case GROUPING_START:
+                    case UNARY:
+                    case SPLITTER:
+                        return new Token(Token.Type.UNARY, "-");
+                    default: return new Token(Token.Type.BINARY, "-");
+                }
+            case '+': return new Token(Token.Type.BINARY, "+");
+            case '*': return new Token(Token.Type.BINARY, "*");
+            case '/': return new Token(Token.Type.BINARY, "/");
+            case '^': return new Token(Token.Type.BINARY, "^");
+            case '&': return new Token(Token.Type.BINARY, "&");
+            case '|': return new Token(Token.Type.BINARY, "|");
+            case '=': return new Token(Token.Type.BINARY, "=");
+            case '>': return new Token(Token.Type.BINARY, ">");
+            default: return new Token(Token.Type.BINARY, "<");
+        }
+    }
+
+    private static String text(String input, int start, int end, boolean split) {
+        if (!split) return input.substring(start, end);
+        StringBuilder out = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) {
+            char c = input.charAt(i);
+            if (!isIgnored(c)) out.append(c);
+        }
+        return out.toString();
+    }
+
+    // Whitespace as matched by the \s regex class, plus '#' for legacy reasons.
+    static boolean isIgnored(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r' || c == '#';
+    }
+
+    private static boolean isQuote(char c) {
+        return c == '"' || c == '\'';
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isOperator(char c) {
+        switch (c) {
+            case '+':
+            case ',':
+            case '-':
+            case '/':
+            case '*':
+            case '^':
+            case '(':
+            case ')':
+            case '&':
+            case '|':
+            case '=':
+            case '>':
+            case '<':
+                return true;
+            default: return false;
+        }
+    }
+
+    /**
+     * Removes whitespace and '#' outside of string literals. The result tokenizes the same as {@code input}, so it is
+     * used as the key under which sources that only differ in spacing share one compiled expression.
+     */
     public static String removeIrrelevantChars(String input) {
         StringBuilder out = new StringBuilder();
 
@@ -31,7 +184,7 @@ public class ExpressionTokenizer {
                     out.append(c);
                     inStringS = true;
                     break;
-                default: if (!Pattern.matches("[\\s#]", String.valueOf(c))) {
+                default: if (!isIgnored(c)) {
                     out.append(c);
                     break;
                 }
@@ -41,6 +194,14 @@ public class ExpressionTokenizer {
         return out.toString();
     }
 
+    /**
+     * The first of the two regex-based passes that {@link #tokenize(String)} replaced, kept because it is public and
+     * as the baseline of the tokenizer benchmark. Together with {@link #identifyTokens(ArrayList)}, run on the output
+     * of {@link #removeIrrelevantChars(String)}, it gives the same tokens as {@link #tokenize(String)}.
+     *
+     * @deprecated use {@link #tokenize(String)}
+     */
+    @Deprecated
     public static ArrayList<BasicToken> splitTokens(String input) {
         ArrayList<BasicToken> out = new ArrayList<>();
         if (input.isEmpty()) return out;
@@ -116,6 +277,10 @@ public class ExpressionTokenizer {
         return out;
     }
 
+    /**
+     * @deprecated only used by {@link #splitTokens(String)}
+     */
+    @Deprecated
     public static void addToken(ArrayList<BasicToken> out, String input, int start, int end, BasicToken.Type type) {
         if (type == null) return;
         out.add(
@@ -126,6 +291,12 @@ public class ExpressionTokenizer {
         );
     }
 
+    /**
+     * The second of the two regex-based passes; see {@link #splitTokens(String)}.
+     *
+     * @deprecated use {@link #tokenize(String)}
+     */
+    @Deprecated
     public static ArrayList<Token> identifyTokens(ArrayList<BasicToken> input) {
         ArrayList<Token> out = new ArrayList<>();
         ListIterator<BasicToken> iter = input.listIterator();
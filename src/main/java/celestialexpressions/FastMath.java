@@ -0,0 +1,190 @@
+package celestialexpressions;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Approximations used by {@link CompileOptions.Precision#FAST}. The arguments are reduced to within 45 degrees of a
+ * multiple of 90 degrees and evaluated with short polynomials, which gives these bounds:
+ * <ul>
+ *     <li>{@link #sin}, {@link #cos} and their degree forms: absolute error below 5e-7.</li>
+ *     <li>{@link #tan} and {@link #tanDegrees}: relative error below 1e-6.</li>
+ *     <li>{@link #pow}: relative error below {@code |exponent| + 1} units in the last place, so below 1.5e-14 for the
+ *     exponents that fast precision rewrites.</li>
+ * </ul>
+ * Arguments beyond {@value #MAX_RADIANS} radians or {@value #MAX_DEGREES} degrees, infinities and NaN are passed to
+ * {@link Math} instead, as are powers whose result or intermediate products could leave the range of normal doubles,
+ * so these bounds hold everywhere.
+ */
+public final class FastMath {
+    public static final int MAX_EXPONENT = 64;
+    public static final double MAX_RADIANS = 1e6;
+    public static final double MAX_DEGREES = 1e9;
+
+    // Pi / 2 split so that k * PIO2_HI is exact for every k reached below MAX_RADIANS.
+    private static final double PIO2_HI = 1.57079632673412561417e+00;
+    private static final double PIO2_LO = 6.07710050650619224932e-11;
+    private static final double TWO_OVER_PI = 2.0 / Math.PI;
+    private static final double RADIANS_PER_DEGREE = Math.PI / 180.0;
+    private static final double QUADRANTS_PER_DEGREE = 1.0 / 90.0;
+
+    private static final Function[] POWERS = new Function[2 * MAX_EXPONENT + 1];
+    private static final Map<Function, Function> APPROXIMATIONS = new IdentityHashMap<>();
+
+    static {
+        for (int i = 0; i < POWERS.length; i++) {
+            int exponent = i - MAX_EXPONENT;
+            POWERS[i] = Function.unary(x -> pow(x, exponent), true);
+        }
+        APPROXIMATIONS.put(ExpressionContext.SIN, Function.unary(FastMath::sinDegrees, true));
+        APPROXIMATIONS.put(ExpressionContext.SINR, Function.unary(FastMath::sin, true));
+        APPROXIMATIONS.put(ExpressionContext.COS, Function.unary(FastMath::cosDegrees, true));
+        APPROXIMATIONS.put(ExpressionContext.COSR, Function.unary(FastMath::cos, true));
+        APPROXIMATIONS.put(ExpressionContext.TAN, Function.unary(FastMath::tanDegrees, true));
+        APPROXIMATIONS.put(ExpressionContext.TANR, Function.unary(FastMath::tan, true));
+    }
+
+    private FastMath() {}
+
+    public static double sin(double radians) {
+        if (!(Math.abs(radians) <= MAX_RADIANS)) return Math.sin(radians);
+        double k = Math.rint(radians * TWO_OVER_PI);
+        return sin(reduce(radians, k), (int) (long) k);
+    }
+
+    public static double cos(double radians) {
+        if (!(Math.abs(radians) <= MAX_RADIANS)) return Math.cos(radians);
+        double k = Math.rint(radians * TWO_OVER_PI);
+        return sin(reduce(radians, k), (int) (long) k + 1);
+    }
+
+    public static double tan(double radians) {
+        if (!(Math.abs(radians) <= MAX_RADIANS)) return Math.tan(radians);
+        double k = Math.rint(radians * TWO_OVER_PI);
+        return tan(reduce(radians, k), (int) (long) k);
+    }
+
+    public static double sinDegrees(double degrees) {
+        if (!(Math.abs(degrees) <= MAX_DEGREES)) return Math.sin(Math.toRadians(degrees));
+        double k = Math.rint(degrees * QUADRANTS_PER_DEGREE);
+        return sin(reduceDegrees(degrees, k), (int) (long) k);
+    }
+
+    public static double cosDegrees(double degrees) {
+        if (!(Math.abs(degrees) <= MAX_DEGREES)) return Math.cos(Math.toRadians(degrees));
+        double k = Math.rint(degrees * QUADRANTS_PER_DEGREE);
+        return sin(reduceDegrees(degrees, k), (int) (long) k + 1);
+    }
+
+    public static double tanDegrees(double degrees) {
+        if (!(Math.abs(degrees) <= MAX_DEGREES)) return Math.tan(Math.toRadians(degrees));
+        double k = Math.rint(degrees * QUADRANTS_PER_DEGREE);
+        return tan(reduceDegrees(degrees, k), (int) (long) k);
+    }
+
+    /**
+     * Raises {@code base} to a whole exponent by repeated squaring, with the special cases of {@link Math#pow} for
+     * whole exponents. Bases whose power could overflow or become subnormal on the way are passed to {@link Math#pow},
+     * since squaring would lose the result or far more than the documented precision there.
+     */
+    public static double pow(double base, int exponent) {
+        // base lies in [2^e, 2^(e+1)), so every product of up to |exponent| factors lies in [2^(e*n), 2^((e+1)*n)), and
+        // keeping that below 2^1023 leaves the reciprocal normal too. Zero, subnormal and non-finite bases fail as well.
+        long scale = Math.getExponent(base);
+        long n = Math.abs((long) exponent);
+        if (exponent != 0 && (scale * n < Double.MIN_EXPONENT || (scale + 1) * n >= Double.MAX_EXPONENT)) {
+            return Math.pow(base, exponent);
+        }
+        long remaining = n;
+        double result = 1.0;
+        while (remaining != 0) {
+            if ((remaining & 1) != 0) result *= base;
+            remaining >>>= 1;
+            if (remaining != 0) base *= base;
+        }
+        return exponent < 0 ? 1.0 / result : result;
+    }
+
+    // Returns radians minus k times pi / 2, keeping the sign of -0.0.
+    private static double reduce(double radians, double k) {
+        return k == 0.0 ? radians : (radians - k * PIO2_HI) - k * PIO2_LO;
+    }
+
+    // Subtracting a multiple of 90 is exact in degrees, so only the final conversion to radians rounds.
+    private static double reduceDegrees(double degrees, double k) {
+        return (k == 0.0 ? degrees : degrees - k * 90.0) * RADIANS_PER_DEGREE;
+    }
+
+    // The sine of r + quadrant * pi / 2, for r between -pi / 4 and pi / 4.
+    private static double sin(double r, int quadrant) {
+        switch (quadrant & 3) {
+            case 0: return sinKernel(r);
+            case 1: return cosKernel(r);
+            case 2: return -sinKernel(r);
+            default: return -cosKernel(r);
+        }
+    }
+
+    private static double tan(double r, int quadrant) {
+        return (quadrant & 1) == 0 ? sinKernel(r) / cosKernel(r) : -cosKernel(r) / sinKernel(r);
+    }
+
+    // Taylor series to the 7th and 8th power, whose remainders stay below 3.2e-7 and 2.5e-8 within pi / 4.
+    private static double sinKernel(double r) {
+        double r2 = r * r;
+        return r * (1.0 + r2 * (-1.0 / 6 + r2 * (1.0 / 120 + r2 * (-1.0 / 5040))));
+    }
+
+    private static double cosKernel(double r) {
+        double r2 = r * r;
+        return 1.0 + r2 * (-0.5 + r2 * (1.0 / 24 + r2 * (-1.0 / 720 + r2 * (1.0 / 40320))));
+    }
+
+    static boolean isApproximation(Function function) {
+        if (APPROXIMATIONS.containsValue(function)) return true;
+        for (Function power : POWERS) {
+            if (power == function) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Rewrites {@code expression} for {@link CompileOptions.Precision#FAST}.
+     */
+    static Expression approximate(Expression expression) {
+        if (expression instanceof Expression.UnaryOperator) {
+            Expression.UnaryOperator operator = (Expression.UnaryOperator) expression;
+            Expression operand = approximate(operator.getExpression());
+            return operand == operator.getExpression() ? operator : operator.copy(operand);
+        }
+        if (expression instanceof Expression.BinaryOperator) {
+            Expression.BinaryOperator operator = (Expression.BinaryOperator) expression;
+            Expression lhs = approximate(operator.getLHS());
+            Expression rhs = approximate(operator.getRHS());
+            if (operator instanceof Expression.Pow && rhs instanceof Expression.Const) {
+                double exponent = ((Expression.Const) rhs).getConstant();
+                if (exponent == Math.rint(exponent) && Math.abs(exponent) <= MAX_EXPONENT) {
+                    ArrayList<IExpression<?>> params = new ArrayList<>(1);
+                    params.add(lhs);
+                    return new Expression.Fun(POWERS[(int) exponent + MAX_EXPONENT], params);
+                }
+            }
+            return lhs == operator.getLHS() && rhs == operator.getRHS() ? operator : operator.copy(lhs, rhs);
+        }
+        if (expression instanceof Expression.Fun) {
+            Expression.Fun function = (Expression.Fun) expression;
+            ArrayList<IExpression<?>> params = new ArrayList<>(function.getParams().size());
+            boolean changed = false;
+            for (IExpression<?> param : function.getParams()) {
+                IExpression<?> approximated = param instanceof Expression ? approximate((Expression) param) : param;
+                changed |= approximated != param;
+                params.add(approximated);
+            }
+            Function approximation = APPROXIMATIONS.get(function.getFunction());
+            if (approximation != null) return new Expression.Fun(function.getName(), approximation, params);
+            return changed ? new Expression.Fun(function.getName(), function.getFunction(), params) : function;
+        }
+        return expression;
+    }
+}
@@ -2,16 +2,118 @@ package celestialexpressions;
 
 import java.util.List;
 import java.util.Objects;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
 import java.util.stream.Collectors;
 
 
 public class Function {
+    private static final Type[] NUMBERS = {Type.NUMBER};
+
     public final FunctionExecutor supplier;
     public final int size;
+    public final boolean pure;
+    final Kind kind;
+    final DoubleUnaryOperator unary;
+    final DoubleBinaryOperator binary;
+    final TernaryExecutor ternary;
+    final QuaternaryExecutor quaternary;
+    final VarargsExecutor varargs;
+    final LazyExecutor lazy;
+    private final Type[] types;
 
-    public Function(FunctionExecutor supplier, int size) {
+    private Function(FunctionExecutor supplier, int size, boolean pure, Kind kind, DoubleUnaryOperator unary,
+                     DoubleBinaryOperator binary, TernaryExecutor ternary, QuaternaryExecutor quaternary,
+                     VarargsExecutor varargs, LazyExecutor lazy, Type[] types) {
+        if (types.length == 0 || (size >= 0 && types.length > Math.max(size, 1))) {
+            throw new IllegalArgumentException("Function takes " + size + " parameters, but " + types.length + " types were declared.");
+        }
         this.supplier = supplier;
         this.size = size;
+        this.pure = pure;
+        this.kind = kind;
+        this.unary = unary;
+        this.binary = binary;
+        this.ternary = ternary;
+        this.quaternary = quaternary;
+        this.varargs = varargs;
+        this.lazy = lazy;
+        this.types = types.clone();
+    }
+
+    public Function(FunctionExecutor supplier, int size, boolean pure) {
+        this(supplier, size, pure, Type.ANY);
+    }
+
+    /**
+     * Creates a function whose parameters are checked when an expression is compiled. The last type applies to every
+     * parameter after it, so a single type covers them all. A function with only {@link Type#NUMBER} and
+     * {@link Type#STRING} parameters can rely on its arguments being {@link Double}s and {@link String}s.
+     */
+    public Function(FunctionExecutor supplier, int size, boolean pure, Type... parameterTypes) {
+        this(supplier, size, pure, Kind.LIST, null, null, null, null, null, null, parameterTypes);
+    }
+
+    public Function(FunctionExecutor supplier, int size) {
+        this(supplier, size, false);
+    }
+
+    /**
+     * Creates a one-parameter function that is called with a primitive argument.
+     */
+    public static Function unary(DoubleUnaryOperator executor, boolean pure) {
+        return new Function(arr -> executor.applyAsDouble((double) arr.get(0)), 1, pure, Kind.UNARY, executor, null, null, null, null, null, NUMBERS);
+    }
+
+    /**
+     * Creates a two-parameter function that is called with primitive arguments.
+     */
+    public static Function binary(DoubleBinaryOperator executor, boolean pure) {
+        return new Function(arr -> executor.applyAsDouble((double) arr.get(0), (double) arr.get(1)), 2, pure, Kind.BINARY, null, executor, null, null, null, null, NUMBERS);
+    }
+
+    /**
+     * Creates a three-parameter function that is called with primitive arguments.
+     */
+    public static Function ternary(TernaryExecutor executor, boolean pure) {
+        return new Function(arr -> executor.invoke((double) arr.get(0), (double) arr.get(1), (double) arr.get(2)), 3, pure,
+                Kind.TERNARY, null, null, executor, null, null, null, NUMBERS);
+    }
+
+    /**
+     * Creates a four-parameter function that is called with primitive arguments.
+     */
+    public static Function quaternary(QuaternaryExecutor executor, boolean pure) {
+        return new Function(arr -> executor.invoke((double) arr.get(0), (double) arr.get(1), (double) arr.get(2), (double) arr.get(3)), 4, pure,
+                Kind.QUATERNARY, null, null, null, executor, null, null, NUMBERS);
+    }
+
+    /**
+     * Creates a function that receives its arguments as a {@code double[]}. A size of -1 accepts any number of
+     * arguments.
+     */
+    public static Function varargs(VarargsExecutor executor, int size, boolean pure) {
+        return new Function(arr -> {
+            double[] values = new double[arr.size()];
+            for (int i = 0; i < values.length; i++) values[i] = (double) arr.get(i);
+            return executor.invoke(values);
+        }, size, pure, Kind.VARARGS, null, null, null, null, executor, null, NUMBERS);
+    }
+
+    /**
+     * Creates a function that decides which of its arguments are evaluated, and in which order. Arguments that are
+     * never requested are never evaluated. A size of -1 accepts any number of arguments.
+     */
+    public static Function lazy(LazyExecutor executor, int size, boolean pure) {
+        return new Function(arr -> executor.invoke(new Arguments() {
+            public int size() {
+                return arr.size();
+            }
+
+            public double evaluate(int index) {
+                return (double) arr.get(index);
+            }
+        }), size, pure, Kind.LAZY, null, null, null, null, null, executor, NUMBERS);
     }
 
     public final FunctionExecutor getSupplier() {
@@ -22,15 +124,113 @@ public class Function {
         return this.size;
     }
 
+    /**
+     * The type of the argument at {@code index}.
+     */
+    public final Type getParameterType(int index) {
+        return this.types[Math.min(index, this.types.length - 1)];
+    }
+
+    /**
+     * A pure function always returns the same result for the same arguments and has no side effects, which allows
+     * calls with constant arguments to be folded at compile time.
+     */
+    public final boolean isPure() {
+        return this.pure;
+    }
+
     public final double invoke(List<IExpression<?>> params) {
         return this.supplier.invoke(params.stream().map(IExpression::invoke).collect(Collectors.toList()));
     }
 
+    /**
+     * Whether the function can be called through {@link #evaluate(Expression[])} with numeric arguments.
+     */
+    final boolean isPrimitive() {
+        return this.kind != Kind.LIST;
+    }
+
+    final double evaluate(Expression[] args, Arguments arguments) {
+        switch (this.kind) {
+            case UNARY: return this.unary.applyAsDouble(args[0].evaluate());
+            case BINARY: return this.binary.applyAsDouble(args[0].evaluate(), args[1].evaluate());
+            case TERNARY: return this.ternary.invoke(args[0].evaluate(), args[1].evaluate(), args[2].evaluate());
+            case QUATERNARY: return this.quaternary.invoke(args[0].evaluate(), args[1].evaluate(), args[2].evaluate(), args[3].evaluate());
+            case VARARGS: {
+                double[] values = new double[args.length];
+                for (int i = 0; i < values.length; i++) values[i] = args[i].evaluate();
+                return this.varargs.invoke(values);
+            }
+            case LAZY: return this.lazy.invoke(arguments);
+            default: throw new IllegalStateException("Function takes boxed arguments.");
+        }
+    }
+
+    // Like evaluate(args, arguments), but passing the parameters on to the arguments. Not for lazy functions.
+    final double evaluate(Expression[] args, double[] frame) {
+        switch (this.kind) {
+            case UNARY: return this.unary.applyAsDouble(args[0].evaluate(frame));
+            case BINARY: return this.binary.applyAsDouble(args[0].evaluate(frame), args[1].evaluate(frame));
+            case TERNARY: return this.ternary.invoke(args[0].evaluate(frame), args[1].evaluate(frame), args[2].evaluate(frame));
+            case QUATERNARY: return this.quaternary.invoke(args[0].evaluate(frame), args[1].evaluate(frame), args[2].evaluate(frame), args[3].evaluate(frame));
+            case VARARGS: {
+                double[] values = new double[args.length];
+                for (int i = 0; i < values.length; i++) values[i] = args[i].evaluate(frame);
+                return this.varargs.invoke(values);
+            }
+            default: throw new IllegalStateException("Function evaluates its own arguments.");
+        }
+    }
+
     @FunctionalInterface
     public interface FunctionExecutor {
         Double invoke(List<Object> input);
     }
 
+    @FunctionalInterface
+    public interface TernaryExecutor {
+        double invoke(double a, double b, double c);
+    }
+
+    @FunctionalInterface
+    public interface QuaternaryExecutor {
+        double invoke(double a, double b, double c, double d);
+    }
+
+    @FunctionalInterface
+    public interface VarargsExecutor {
+        double invoke(double[] args);
+    }
+
+    @FunctionalInterface
+    public interface LazyExecutor {
+        double invoke(Arguments args);
+    }
+
+    /**
+     * The arguments of a lazy function call. Each call to {@link #evaluate(int)} evaluates that argument again.
+     */
+    public interface Arguments {
+        int size();
+
+        double evaluate(int index);
+    }
+
+    public enum Type {
+        NUMBER, STRING, ANY;
+
+        /**
+         * Whether an argument of type {@code type} can be passed where this type is declared.
+         */
+        public boolean accepts(Type type) {
+            return this == ANY || this == type;
+        }
+    }
+
+    enum Kind {
+        LIST, UNARY, BINARY, TERNARY, QUATERNARY, VARARGS, LAZY
+    }
+
     public static class Signature {
         public final String name;
         public final int args;
@@ -0,0 +1,180 @@
+package celestialexpressions;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * Evaluates an expression again only where its inputs changed. Every subtree that only reads {@link Versioned}
+ * variables, constants and pure functions keeps its last result together with the versions it was computed from, and
+ * returns that result until one of those versions moves. Subtrees that read anything else, such as impure variables
+ * or plain suppliers, are evaluated every time, but the tracked subtrees below them are still reused.
+ * <p>
+ * Like the expression it wraps, an incremental expression can be evaluated by several threads at once.
+ */
+public final class IncrementalExpression implements Expression {
+    private static final Versioned[] NONE = new Versioned[0];
+
+    private final Expression source;
+    private final Expression root;
+
+    private IncrementalExpression(Expression source) {
+        this.source = source;
+        this.root = cache(rewrite(source));
+    }
+
+    public static IncrementalExpression of(Expression expression) {
+        if (expression instanceof IncrementalExpression) return (IncrementalExpression) expression;
+        if (expression instanceof CompiledForm) expression = ((CompiledForm) expression).getSource();
+        return new IncrementalExpression(expression);
+    }
+
+    public Expression getSource() {
+        return this.source;
+    }
+
+    /**
+     * Whether the whole expression is tracked, in which case evaluating it without any change does no work at all.
+     */
+    public boolean isTracked() {
+        return this.root instanceof Cached;
+    }
+
+    public double evaluate() {
+        return this.root.evaluate();
+    }
+
+    public double evaluate(double[] args) {
+        return this.root.evaluate(args);
+    }
+
+    @Override
+    public String toString() {
+        return this.source.toString();
+    }
+
+    private static Node rewrite(Expression node) {
+        if (node instanceof Expression.Const) return new Node(node, NONE);
+        if (node instanceof Expression.Var) {
+            Expression.Var variable = (Expression.Var) node;
+            Expression supplier = variable.getSupplier();
+            if (supplier instanceof VariableList.Pure) supplier = ((VariableList.Pure) supplier).getSupplier();
+            if (supplier instanceof Expression.Const) return new Node(node, NONE);
+            if (supplier instanceof Versioned && variable.isPure()) return new Node(node, new Versioned[] { (Versioned) supplier });
+            return new Node(node, null);
+        }
+        if (node instanceof Expression.UnaryOperator) {
+            Expression.UnaryOperator operator = (Expression.UnaryOperator) node;
+            Node operand = rewrite(operator.getExpression());
+            if (operand.dependencies == null) {
+                return new Node(operator.copy(cache(operand)), null);
+            }
+            Expression rewritten = operand.expression == operator.getExpression() ? node : operator.copy(operand.expression);
+            return new Node(rewritten, operand.dependencies);
+        }
+        if (node instanceof Expression.BinaryOperator) {
+            Expression.BinaryOperator operator = (Expression.BinaryOperator) node;
+            Node lhs = rewrite(operator.getLHS());
+            Node rhs = rewrite(operator.getRHS());
+            if (lhs.dependencies == null || rhs.dependencies == null) {
+                return new Node(operator.copy(cache(lhs), cache(rhs)), null);
+            }
+            Expression rewritten = lhs.expression == operator.getLHS() && rhs.expression == operator.getRHS()
+                    ? node : operator.copy(lhs.expression, rhs.expression);
+            return new Node(rewritten, merge(lhs.dependencies, rhs.dependencies));
+        }
+        if (node instanceof Expression.Fun) {
+            Expression.Fun function = (Expression.Fun) node;
+            ArrayList<Node> rewritten = new ArrayList<>(function.getParams().size());
+            boolean tracked = function.getFunction().isPure();
+            for (IExpression<?> param : function.getParams()) {
+                if (param instanceof Expression) {
+                    Node child = rewrite((Expression) param);
+                    tracked &= child.dependencies != null;
+                    rewritten.add(child);
+                } else {
+                    rewritten.add(null);
+                }
+            }
+            Versioned[] dependencies = tracked ? NONE : null;
+            ArrayList<IExpression<?>> params = new ArrayList<>(rewritten.size());
+            for (int i = 0; i < rewritten.size(); i++) {
+                Node child = rewritten.get(i);
+                if (child == null) params.add(function.getParams().get(i));
+                else if (tracked) {
+                    params.add(child.expression);
+                    dependencies = merge(dependencies, child.dependencies);
+                } else params.add(cache(child));
+            }
+            Expression.Fun call = new Expression.Fun(function.getName(), function.getFunction(), params);
+            // Calls are cached on their own as well, so a changed operand next to them does not make them run again.
+            return tracked ? new Node(cache(new Node(call, dependencies)), dependencies) : new Node(call, null);
+        }
+        return new Node(node, null);
+    }
+
+    private static Expression cache(Node node) {
+        if (node.dependencies == null || node.expression instanceof Cached) return node.expression;
+        if (node.expression instanceof Expression.Const || node.expression instanceof Expression.Var) return node.expression;
+        return new Cached(node.expression, node.dependencies);
+    }
+
+    private static Versioned[] merge(Versioned[] a, Versioned[] b) {
+        if (a.length == 0) return b;
+        if (b.length == 0) return a;
+        Set<Versioned> merged = Collections.newSetFromMap(new IdentityHashMap<>());
+        Collections.addAll(merged, a);
+        Collections.addAll(merged, b);
+        return merged.size() == a.length ? a : merged.toArray(NONE);
+    }
+
+    private static final class Node {
+        private final Expression expression;
+        // Null when the subtree reads something that is not versioned.
+        private final Versioned[] dependencies;
+
+        private Node(Expression expression, Versioned[] dependencies) {
+            this.expression = expression;
+            this.dependencies = dependencies;
+        }
+    }
+
+    private static final class Cached implements Expression {
+        private final Expression expression;
+        private final Versioned[] dependencies;
+        private volatile Entry entry;
+
+        private Cached(Expression expression, Versioned[] dependencies) {
+            this.expression = expression;
+            this.dependencies = dependencies;
+        }
+
+        public double evaluate() {
+            // Versions only grow, so their sum changes whenever any of them does. It is read before evaluating, so a
+            // change made while evaluating is picked up on the next call.
+            long stamp = 0L;
+            for (Versioned dependency : this.dependencies) stamp += dependency.getVersion();
+            Entry entry = this.entry;
+            if (entry != null && entry.stamp == stamp) return entry.value;
+            double value = this.expression.evaluate();
+            this.entry = new Entry(stamp, value);
+            return value;
+        }
+
+        @Override
+        public String toString() {
+            return this.expression.toString();
+        }
+    }
+
+    private static final class Entry {
+        private final long stamp;
+        private final double value;
+
+        private Entry(long stamp, double value) {
+            this.stamp = stamp;
+            this.value = value;
+        }
+    }
+}
@@ -27,27 +27,19 @@ public class Module {
     }
 
     public Expression getVariable(String name) {
-        String[] split
-                = name.split(":");
-        return this.variables.getVariable(split[split.length - 1]);
+        String local = this.localName(name, "variable");
+        if (local == null) throw new VariableList.NoSuchVariableException("Variable \"" + name + "\" is not declared.");
+        return this.variables.getVariable(local);
     }
 
     public boolean hasVariable(String name) {
-        String[] split = name.split(":");
-        if (split.length > 2) {
-            throw new VariableList.NoSuchVariableException("Illegal variable name \"" + name + "\", cannot have more than one colon.");
-        } else {
-            if (split.length == 2 && split[0].equals(this.name)) {
-                return false;
-            } else {
-                return this.variables.hasVariable(name);
-            }
-        }
+        String local = this.localName(name, "variable");
+        return local != null && this.variables.hasVariable(local);
     }
 
     public Function getFunction(String name, int argCount) {
-        String[] split = name.split(":");
-        Function fun = this.functions.getFunction(split[split.length-1], argCount);
+        String local = this.localName(name, "function");
+        Function fun = local == null ? null : this.functions.getFunction(local, argCount);
         if (fun != null) {
             return fun;
         } else {
@@ -56,15 +48,27 @@ public class Module {
     }
 
     public boolean hasFunction(String name, int argCount) {
-        String[] split = name.split(":");
-        if (split.length > 2) {
-            throw new FunctionList.NoSuchFunctionException("Illegal function name \"" + name + "\", cannot have more than one colon.");
-        } else {
-            if (split.length == 2 && split[0].equals(this.name)) {
-                return false;
-            } else {
-                return this.functions.hasFunction(name, argCount);
-            }
+        String local = this.localName(name, "function");
+        return local != null && this.functions.hasFunction(local, argCount);
+    }
+
+    // Strips a "module:" prefix naming this module. Returns null when the prefix names another module.
+    private String localName(String name, String type) {
+        int colon = qualifier(name, type);
+        if (colon < 0) return name;
+        return colon == this.name.length() && name.startsWith(this.name) ? name.substring(colon + 1) : null;
+    }
+
+    /**
+     * Returns the position of the colon in a qualified "module:name", or -1 for an unqualified name.
+     */
+    static int qualifier(String name, String type) {
+        int colon = name.indexOf(':');
+        if (colon >= 0 && name.indexOf(':', colon + 1) >= 0) {
+            String message = "Illegal " + type + " name \"" + name + "\", cannot have more than one colon.";
+            if (type.equals("function")) throw new FunctionList.NoSuchFunctionException(message);
+            throw new VariableList.NoSuchVariableException(message);
         }
+        return colon;
     }
-}
\ No newline at end of file
+}
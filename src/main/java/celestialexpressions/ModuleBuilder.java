@@ -22,6 +22,34 @@ public final class ModuleBuilder {
         this.variables.registerVariable(name, supplier);
     }
 
+    public void addConstant(String name, double value) {
+        assertNameIsValid(name);
+        this.variables.registerConstant(name, value);
+    }
+
+    /**
+     * Registers a {@link TrackedVariable} with the given starting value and returns it, so the host can set it later.
+     */
+    public TrackedVariable addTrackedVariable(String name, double value) {
+        TrackedVariable variable = new TrackedVariable(value);
+        this.addVariable(name, variable);
+        return variable;
+    }
+
+    public void addImpureVariable(String name, Expression supplier) {
+        assertNameIsValid(name);
+        this.variables.registerImpureVariable(name, supplier);
+    }
+
+    /**
+     * Registers a variable whose value never changes during an evaluation, even when read twice; see
+     * {@link VariableList.Pure}.
+     */
+    public void addPureVariable(String name, Expression supplier) {
+        assertNameIsValid(name);
+        this.variables.registerPureVariable(name, supplier);
+    }
+
     public void addFunction(String name, Function function) {
         assertNameIsValid(name);
         this.functions.registerFunction(name, function);
@@ -0,0 +1,242 @@
+package celestialexpressions;
+
+import java.util.SplittableRandom;
+
+/**
+ * Gradient noise, fractal noise and cellular noise over precomputed tables. The tables are shuffled from a seed, so
+ * the same seed always gives the same values, on every thread and in every run. Every pattern repeats after 256 units
+ * along each axis.
+ * <p>
+ * {@link #createModule(long)} registers the functions as a module named "noise":
+ * <ul>
+ *     <li>{@code noise(x)}, {@code noise(x, y)}, {@code noise(x, y, z)}: Perlin noise, between -1 and 1 and 0 at
+ *     whole coordinates.</li>
+ *     <li>{@code fbm(x, octaves)}, {@code fbm(x, y, octaves)}, {@code fbm(x, y, z, octaves)}: octaves of Perlin noise,
+ *     each at twice the frequency and half the amplitude of the previous one, scaled back to between -1 and 1. Octaves
+ *     are rounded down and kept between 1 and {@value #MAX_OCTAVES}.</li>
+ *     <li>{@code worley(x, y)}, {@code worley(x, y, z)}: the distance to the nearest of points scattered one per unit
+ *     cell, 0 on a point and rarely above 1.</li>
+ * </ul>
+ * Names with digits are read as variables, which is why the dimensions are overloads of one name.
+ */
+public final class Noise {
+    public static final int MAX_OCTAVES = 16;
+
+    // Indices of 0..255 shuffled and repeated once, so that sums of two indices need no wrapping.
+    private final int[] permutation = new int[512];
+    // The offset of each cell's point inside the cell, per axis, indexed by the cell's hash.
+    private final double[] jitterX = new double[256];
+    private final double[] jitterY = new double[256];
+    private final double[] jitterZ = new double[256];
+
+    public Noise(long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        for (int i = 0; i < 256; i++) this.permutation[i] = i;
+        for (int i = 255; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swap = this.permutation[i];
+            this.permutation[i] = this.permutation[j];
+            this.permutation[j] = swap;
+        }
+        System.arraycopy(this.permutation, 0, this.permutation, 256, 256);
+        for (int i = 0; i < 256; i++) {
+            this.jitterX[i] = random.nextDouble();
+            this.jitterY[i] = random.nextDouble();
+            this.jitterZ[i] = random.nextDouble();
+        }
+    }
+
+    /**
+     * Creates the "noise" module with tables shuffled from {@code seed}.
+     */
+    public static Module createModule(long seed) {
+        Noise noise = new Noise(seed);
+        ModuleBuilder builder = new ModuleBuilder("noise");
+        builder.addFunction("noise", Function.unary(noise::noise, true));
+        builder.addFunction("noise", Function.binary(noise::noise, true));
+        builder.addFunction("fbm", Function.binary(noise::fbm, true));
+        builder.addFunction("worley", Function.binary(noise::worley, true));
+        builder.addFunction("noise", Function.ternary(noise::noise, true));
+        builder.addFunction("fbm", Function.ternary(noise::fbm, true));
+        builder.addFunction("fbm", Function.quaternary(noise::fbm, true));
+        builder.addFunction("worley", Function.ternary(noise::worley, true));
+        return builder.build();
+    }
+
+    public double noise(double x) {
+        int[] p = this.permutation;
+        double fx = Math.floor(x);
+        int X = (int) fx & 255;
+        x -= fx;
+        return lerp(fade(x), grad(p[X], x), grad(p[X + 1], x - 1));
+    }
+
+    public double noise(double x, double y) {
+        int[] p = this.permutation;
+        double fx = Math.floor(x);
+        double fy = Math.floor(y);
+        int X = (int) fx & 255;
+        int Y = (int) fy & 255;
+        x -= fx;
+        y -= fy;
+        double u = fade(x);
+        int A = p[X] + Y;
+        int B = p[X + 1] + Y;
+        return lerp(fade(y), lerp(u, grad(p[A], x, y), grad(p[B], x - 1, y)),
+                lerp(u, grad(p[A + 1], x, y - 1), grad(p[B + 1], x - 1, y - 1)));
+    }
+
+    public double noise(double x, double y, double z) {
+        int[] p = this.permutation;
+        double fx = Math.floor(x);
+        double fy = Math.floor(y);
+        double fz = Math.floor(z);
+        int X = (int) fx & 255;
+        int Y = (int) fy & 255;
+        int Z = (int) fz & 255;
+        x -= fx;
+        y -= fy;
+        z -= fz;
+        double u = fade(x);
+        double v = fade(y);
+        int A = p[X] + Y;
+        int AA = p[A] + Z;
+        int AB = p[A + 1] + Z;
+        int B = p[X + 1] + Y;
+        int BA = p[B] + Z;
+        int BB = p[B + 1] + Z;
+        return lerp(fade(z),
+                lerp(v, lerp(u, grad(p[AA], x, y, z), grad(p[BA], x - 1, y, z)),
+                        lerp(u, grad(p[AB], x, y - 1, z), grad(p[BB], x - 1, y - 1, z))),
+                lerp(v, lerp(u, grad(p[AA + 1], x, y, z - 1), grad(p[BA + 1], x - 1, y, z - 1)),
+                        lerp(u, grad(p[AB + 1], x, y - 1, z - 1), grad(p[BB + 1], x - 1, y - 1, z - 1))));
+    }
+
+    public double fbm(double x, double octaves) {
+        int count = octaves(octaves);
+        double sum = 0.0;
+        double amplitude = 1.0;
+        double frequency = 1.0;
+        for (int i = 0; i < count; i++) {
+            sum += amplitude * this.noise(x * frequency);
+            amplitude *= 0.5;
+            frequency *= 2.0;
+        }
+        return sum / (2.0 - 2.0 * amplitude);
+    }
+
+    public double fbm(double x, double y, double octaves) {
+        int count = octaves(octaves);
+        double sum = 0.0;
+        double amplitude = 1.0;
+        double frequency = 1.0;
+        for (int i = 0; i < count; i++) {
+            sum += amplitude * this.noise(x * frequency, y * frequency);
+            amplitude *= 0.5;
+            frequency *= 2.0;
+        }
+        return sum / (2.0 - 2.0 * amplitude);
+    }
+
+    public double fbm(double x, double y, double z, double octaves) {
+        int count = octaves(octaves);
+        double sum = 0.0;
+        double amplitude = 1.0;
+        double frequency = 1.0;
+        for (int i = 0; i < count; i++) {
+            sum += amplitude * this.noise(x * frequency, y * frequency, z * frequency);
+            amplitude *= 0.5;
+            frequency *= 2.0;
+        }
+        return sum / (2.0 - 2.0 * amplitude);
+    }
+
+    public double worley(double x, double y) {
+        int[] p = this.permutation;
+        double fx = Math.floor(x);
+        double fy = Math.floor(y);
+        int X = (int) fx;
+        int Y = (int) fy;
+        x -= fx;
+        y -= fy;
+        double nearest = Double.POSITIVE_INFINITY;
+        for (int i = -1; i <= 1; i++) {
+            int column = p[(X + i) & 255];
+            for (int j = -1; j <= 1; j++) {
+                int hash = p[column + ((Y + j) & 255)];
+                double dx = i + this.jitterX[hash] - x;
+                double dy = j + this.jitterY[hash] - y;
+                nearest = Math.min(nearest, dx * dx + dy * dy);
+            }
+        }
+        return Math.sqrt(nearest);
+    }
+
+    public double worley(double x, double y, double z) {
+        int[] p = this.permutation;
+        double fx = Math.floor(x);
+        double fy = Math.floor(y);
+        double fz = Math.floor(z);
+        int X = (int) fx;
+        int Y = (int) fy;
+        int Z = (int) fz;
+        x -= fx;
+        y -= fy;
+        z -= fz;
+        double nearest = Double.POSITIVE_INFINITY;
+        for (int i = -1; i <= 1; i++) {
+            int column = p[(X + i) & 255];
+            for (int j = -1; j <= 1; j++) {
+                int row = p[column + ((Y + j) & 255)];
+                for (int k = -1; k <= 1; k++) {
+                    int hash = p[row + ((Z + k) & 255)];
+                    double dx = i + this.jitterX[hash] - x;
+                    double dy = j + this.jitterY[hash] - y;
+                    double dz = k + this.jitterZ[hash] - z;
+                    nearest = Math.min(nearest, dx * dx + dy * dy + dz * dz);
+                }
+            }
+        }
+        return Math.sqrt(nearest);
+    }
+
+    // NaN counts as one octave.
+    private static int octaves(double octaves) {
+        if (octaves >= MAX_OCTAVES) return MAX_OCTAVES;
+        return octaves >= 1.0 ? (int) octaves : 1;
+    }
+
+    private static double fade(double t) {
+        return t * t * t * (t * (t * 6 - 15) + 10);
+    }
+
+    private static double lerp(double t, double a, double b) {
+        return a + t * (b - a);
+    }
+
+    // Slopes of +-0.25 to +-2, so that the value stays between -1 and 1.
+    private static double grad(int hash, double x) {
+        double slope = ((hash & 7) + 1) * 0.25;
+        return (hash & 8) == 0 ? slope * x : -slope * x;
+    }
+
+    private static double grad(int hash, double x, double y) {
+        switch (hash & 7) {
+            case 0: return x + y;
+            case 1: return x - y;
+            case 2: return -x + y;
+            case 3: return -x - y;
+            case 4: return x;
+            case 5: return -x;
+            case 6: return y;
+            default: return -y;
+        }
+    }
+
+    private static double grad(int hash, double x, double y, double z) {
+        int h = hash & 15;
+        double u = h < 8 ? x : y;
+        double v = h < 4 ? y : h == 12 || h == 14 ? x : z;
+        return ((h & 1) == 0 ? u : -u) + ((h & 2) == 0 ? v : -v);
+    }
+}
@@ -0,0 +1,198 @@
+package celestialexpressions;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Lowers a finished expression tree into postfix code for {@link PostfixExpression}. Every instruction is one int, the
+ * opcode in the low byte and its operand above it. Constants, operators, variables and calls of every primitive arity
+ * become instructions; any other node is kept as an object and evaluated as a whole.
+ */
+final class PostfixCompiler {
+    static final int CONST = 0;
+    static final int LOAD = 1;
+    static final int NODE = 2;
+    static final int NEG = 3;
+    static final int ADD = 4;
+    static final int SUB = 5;
+    static final int MUL = 6;
+    static final int DIV = 7;
+    static final int POW = 8;
+    static final int GTR = 9;
+    static final int LSS = 10;
+    static final int EQ = 11;
+    // Leaves the left operand's result and jumps to the operand when it decides the outcome, otherwise pops it.
+    static final int AND = 12;
+    static final int OR = 13;
+    // Turns the right operand of And or Or into 1.0 or 0.0.
+    static final int TRUTH = 14;
+    static final int CALL1 = 15;
+    static final int CALL2 = 16;
+    static final int CALLN = 17;
+    // Arithmetic with a constant right operand, which saves pushing it.
+    static final int ADDK = 18;
+    static final int SUBK = 19;
+    static final int MULK = 20;
+    static final int DIVK = 21;
+    static final int POWK = 22;
+    static final int PARAM = 23;
+    static final int CALL3 = 24;
+    static final int CALL4 = 25;
+
+    private static final int MAX_OPERAND = (1 << 24) - 1;
+
+    private final List<Integer> code = new ArrayList<>();
+    private final List<Double> constants = new ArrayList<>();
+    private final Pool<Expression> variables = new Pool<>();
+    private final Pool<Expression> nodes = new Pool<>();
+    private final Pool<DoubleUnaryOperator> unary = new Pool<>();
+    private final Pool<DoubleBinaryOperator> binary = new Pool<>();
+    private final Pool<Function.TernaryExecutor> ternary = new Pool<>();
+    private final Pool<Function.QuaternaryExecutor> quaternary = new Pool<>();
+    private final Pool<Function.VarargsExecutor> varargs = new Pool<>();
+    private final List<Integer> varargsArities = new ArrayList<>();
+    private int depth;
+    private int maxDepth;
+
+    private PostfixCompiler() {}
+
+    static Expression compile(Expression tree) {
+        if (tree instanceof CompiledForm) tree = ((CompiledForm) tree).getSource();
+        PostfixCompiler compiler = new PostfixCompiler();
+        compiler.emit(tree);
+
+        int[] code = new int[compiler.code.size()];
+        for (int i = 0; i < code.length; i++) code[i] = compiler.code.get(i);
+        double[] constants = new double[compiler.constants.size()];
+        for (int i = 0; i < constants.length; i++) constants[i] = compiler.constants.get(i);
+        int[] arities = new int[compiler.varargsArities.size()];
+        for (int i = 0; i < arities.length; i++) arities[i] = compiler.varargsArities.get(i);
+        return new PostfixExpression(tree, code, constants, compiler.variables.toArray(new Expression[0]),
+                compiler.nodes.toArray(new Expression[0]), compiler.unary.toArray(new DoubleUnaryOperator[0]),
+                compiler.binary.toArray(new DoubleBinaryOperator[0]), compiler.ternary.toArray(new Function.TernaryExecutor[0]),
+                compiler.quaternary.toArray(new Function.QuaternaryExecutor[0]), compiler.varargs.toArray(new Function.VarargsExecutor[0]),
+                arities, compiler.maxDepth, !Dependencies.of(tree).getParameters().isEmpty());
+    }
+
+    private void emit(Expression node) {
+        // Long flat sums and products are left-deep, so the left spine is walked iteratively instead of recursively.
+        ArrayDeque<Expression.BinaryOperator> spine = new ArrayDeque<>();
+        while (operatorOpcode(node) >= 0) {
+            spine.push((Expression.BinaryOperator) node);
+            node = ((Expression.BinaryOperator) node).getLHS();
+        }
+        this.emitNode(node);
+        while (!spine.isEmpty()) {
+            Expression.BinaryOperator operator = spine.pop();
+            int opcode = operatorOpcode(operator);
+            if (opcode <= POW && operator.getRHS().getClass() == Expression.Const.class) {
+                this.instruction(opcode - ADD + ADDK, this.constant(((Expression.Const) operator.getRHS()).constant), 0);
+                continue;
+            }
+            this.emit(operator.getRHS());
+            this.instruction(opcode, 0, -1);
+        }
+    }
+
+    private static int operatorOpcode(Expression node) {
+        Class<?> type = node.getClass();
+        if (type == Expression.Add.class) return ADD;
+        if (type == Expression.Sub.class) return SUB;
+        if (type == Expression.Mul.class) return MUL;
+        if (type == Expression.Div.class) return DIV;
+        if (type == Expression.Pow.class) return POW;
+        if (type == Expression.Gtr.class) return GTR;
+        if (type == Expression.Lss.class) return LSS;
+        if (type == Expression.Eq.class) return EQ;
+        return -1;
+    }
+
+    private void emitNode(Expression node) {
+        Class<?> type = node.getClass();
+        if (type == Expression.Const.class) this.instruction(CONST, this.constant(((Expression.Const) node).constant), 1);
+        else if (type == Expression.Param.class) this.instruction(PARAM, ((Expression.Param) node).getIndex(), 1);
+        else if (type == Expression.Var.class) this.instruction(LOAD, this.variables.intern(((Expression.Var) node).getSupplier()), 1);
+        else if (type == Expression.Negate.class) {
+            this.emit(((Expression.Negate) node).getExpression());
+            this.instruction(NEG, 0, 0);
+        }
+        else if (type == Expression.And.class || type == Expression.Or.class) {
+            Expression.BinaryOperator operator = (Expression.BinaryOperator) node;
+            this.emit(operator.getLHS());
+            int jump = this.code.size();
+            this.instruction(type == Expression.And.class ? AND : OR, 0, -1);
+            this.emit(operator.getRHS());
+            this.instruction(TRUTH, 0, 0);
+            this.code.set(jump, this.code.size() << 8 | this.code.get(jump));
+        }
+        else if (type == Expression.Fun.class) this.emitFunction((Expression.Fun) node);
+        else this.instruction(NODE, this.nodes.intern(node), 1);
+    }
+
+    private void emitFunction(Expression.Fun node) {
+        Function function = node.getFunction();
+        Expression[] args = node.getArgs();
+        if (args == null || function.kind == Function.Kind.LAZY || function.kind == Function.Kind.LIST) {
+            this.instruction(NODE, this.nodes.intern(node), 1);
+            return;
+        }
+        for (Expression arg : args) this.emit(arg);
+        switch (function.kind) {
+            case UNARY:
+                this.instruction(CALL1, this.unary.intern(function.unary), 0);
+                break;
+            case BINARY:
+                this.instruction(CALL2, this.binary.intern(function.binary), -1);
+                break;
+            case TERNARY:
+                this.instruction(CALL3, this.ternary.intern(function.ternary), -2);
+                break;
+            case QUATERNARY:
+                this.instruction(CALL4, this.quaternary.intern(function.quaternary), -3);
+                break;
+            default:
+                // Every call gets its own entry, since the same executor can be called with different arities.
+                this.varargsArities.add(args.length);
+                this.instruction(CALLN, this.varargs.append(function.varargs), 1 - args.length);
+        }
+    }
+
+    private int constant(double value) {
+        this.constants.add(value);
+        return this.constants.size() - 1;
+    }
+
+    private void instruction(int opcode, int operand, int stackEffect) {
+        if (operand > MAX_OPERAND) throw new ExpressionCompiler.InvalidExpressionException("Expression is too large for the postfix backend.");
+        this.code.add(operand << 8 | opcode);
+        this.depth += stackEffect;
+        this.maxDepth = Math.max(this.maxDepth, this.depth);
+    }
+
+    // Objects by identity, each stored once unless appended.
+    private static final class Pool<T> {
+        private final List<T> values = new ArrayList<>();
+        private final Map<T, Integer> index = new IdentityHashMap<>();
+
+        private int intern(T value) {
+            Integer index = this.index.get(value);
+            if (index != null) return index;
+            this.index.put(value, this.values.size());
+            return this.append(value);
+        }
+
+        private int append(T value) {
+            this.values.add(value);
+            return this.values.size() - 1;
+        }
+
+        private T[] toArray(T[] array) {
+            return this.values.toArray(array);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package celestialexpressions;
+
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+
+import static celestialexpressions.PostfixCompiler.*;
+
+/**
+ * An expression compiled by the {@link CompileOptions.Backend#POSTFIX} backend: a flat array of instructions run over
+ * a stack of doubles. The tree it was compiled from is kept so that it can still be inspected and printed.
+ * <p>
+ * Every thread keeps a stack of its own for reuse, so the expression stays safe to share without threads touching
+ * the same memory. An evaluation that reenters the same expression on one thread runs on a fresh stack.
+ */
+public final class PostfixExpression implements Expression, CompiledForm {
+    private final Expression source;
+    private final int[] code;
+    private final double[] constants;
+    private final Expression[] variables;
+    private final Expression[] nodes;
+    private final DoubleUnaryOperator[] unary;
+    private final DoubleBinaryOperator[] binary;
+    private final Function.TernaryExecutor[] ternary;
+    private final Function.QuaternaryExecutor[] quaternary;
+    private final Function.VarargsExecutor[] varargs;
+    private final int[] varargsArities;
+    private final int depth;
+    private final boolean parameterized;
+    private final ThreadLocal<Stack> stacks;
+
+    PostfixExpression(Expression source, int[] code, double[] constants, Expression[] variables, Expression[] nodes,
+                      DoubleUnaryOperator[] unary, DoubleBinaryOperator[] binary, Function.TernaryExecutor[] ternary,
+                      Function.QuaternaryExecutor[] quaternary, Function.VarargsExecutor[] varargs, int[] varargsArities,
+                      int depth, boolean parameterized) {
+        this.source = source;
+        this.code = code;
+        this.constants = constants;
+        this.variables = variables;
+        this.nodes = nodes;
+        this.unary = unary;
+        this.binary = binary;
+        this.ternary = ternary;
+        this.quaternary = quaternary;
+        this.varargs = varargs;
+        this.varargsArities = varargsArities;
+        this.depth = depth;
+        this.stacks = ThreadLocal.withInitial(() -> new Stack(depth));
+        this.parameterized = parameterized;
+    }
+
+    public Expression getSource() {
+        return this.source;
+    }
+
+    /**
+     * The number of instructions.
+     */
+    public int size() {
+        return this.code.length;
+    }
+
+    public double evaluate() {
+        return this.evaluate(this.parameterized ? Expression.Param.frame() : null);
+    }
+
+    public double evaluate(double[] args) {
+        Stack stack = this.stacks.get();
+        if (stack.busy) return this.run(new double[this.depth], args);
+        stack.busy = true;
+        try {
+            return this.run(stack.values, args);
+        } finally {
+            stack.busy = false;
+        }
+    }
+
+    // Only ever touched by the thread that owns it, so its fields need no synchronization.
+    private static final class Stack {
+        private final double[] values;
+        private boolean busy;
+
+        private Stack(int depth) {
+            this.values = new double[depth];
+        }
+    }
+
+    // Args is null when the expression has no parameters.
+    private double run(double[] stack, double[] args) {
+        int[] code = this.code;
+        double[] constants = this.constants;
+        Expression[] variables = this.variables;
+        int top = -1;
+        int pc = 0;
+        while (pc < code.length) {
+            int instruction = code[pc++];
+            int operand = instruction >>> 8;
+            switch (instruction & 0xff) {
+                case CONST: stack[++top] = constants[operand]; break;
+                case LOAD: stack[++top] = variables[operand].evaluate(); break;
+                case NODE: stack[++top] = args != null ? this.nodes[operand].evaluate(args) : this.nodes[operand].evaluate(); break;
+                case PARAM: stack[++top] = args[operand]; break;
+                case NEG: stack[top] = -stack[top]; break;
+                case ADD: top--; stack[top] = stack[top] + stack[top + 1]; break;
+                case SUB: top--; stack[top] = stack[top] - stack[top + 1]; break;
+                case MUL: top--; stack[top] = stack[top] * stack[top + 1]; break;
+                case DIV: top--; stack[top] = stack[top] / stack[top + 1]; break;
+                case POW: top--; stack[top] = Math.pow(stack[top], stack[top + 1]); break;
+                case GTR: top--; stack[top] = stack[top] > stack[top + 1] ? 1.0 : 0.0; break;
+                case LSS: top--; stack[top] = stack[top] < stack[top + 1] ? 1.0 : 0.0; break;
+                case EQ: top--; stack[top] = Double.doubleToLongBits(stack[top]) == Double.doubleToLongBits(stack[top + 1]) ? 1.0 : 0.0; break;
+                case AND:
+                    if (stack[top] != 1.0) {
+                        stack[top] = 0.0;
+                        pc = operand;
+                    } else top--;
+                    break;
+                case OR:
+                    if (stack[top] == 1.0) pc = operand;
+                    else top--;
+                    break;
+                case ADDK: stack[top] = stack[top] + constants[operand]; break;
+                case SUBK: stack[top] = stack[top] - constants[operand]; break;
+                case MULK: stack[top] = stack[top] * constants[operand]; break;
+                case DIVK: stack[top] = stack[top] / constants[operand]; break;
+                case POWK: stack[top] = Math.pow(stack[top], constants[operand]); break;
+                case TRUTH: stack[top] = stack[top] == 1.0 ? 1.0 : 0.0; break;
+                case CALL1: stack[top] = this.unary[operand].applyAsDouble(stack[top]); break;
+                case CALL2: top--; stack[top] = this.binary[operand].applyAsDouble(stack[top], stack[top + 1]); break;
+                case CALL3: top -= 2; stack[top] = this.ternary[operand].invoke(stack[top], stack[top + 1], stack[top + 2]); break;
+                case CALL4: top -= 3; stack[top] = this.quaternary[operand].invoke(stack[top], stack[top + 1], stack[top + 2], stack[top + 3]); break;
+                case CALLN: {
+                    int arity = this.varargsArities[operand];
+                    double[] values = new double[arity];
+                    top -= arity;
+                    System.arraycopy(stack, top + 1, values, 0, arity);
+                    stack[++top] = this.varargs[operand].invoke(values);
+                    break;
+                }
+                default: throw new IllegalStateException("Unknown postfix instruction " + (instruction & 0xff) + ".");
+            }
+        }
+        return stack[0];
+    }
+
+    @Override
+    public String toString() {
+        return this.source.toString();
+    }
+}
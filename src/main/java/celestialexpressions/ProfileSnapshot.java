@@ -0,0 +1,101 @@
+package celestialexpressions;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The counters of an {@link EvaluationProfiler} at one point in time, most expensive first.
+ */
+public final class ProfileSnapshot {
+    private final List<Entry> entries;
+
+    ProfileSnapshot(List<Entry> entries) {
+        List<Entry> sorted = new ArrayList<>(entries);
+        sorted.sort(Comparator.comparingLong(Entry::getNanos).reversed());
+        this.entries = Collections.unmodifiableList(sorted);
+    }
+
+    public List<Entry> getEntries() {
+        return this.entries;
+    }
+
+    public List<Entry> getEntries(EvaluationProfiler.Kind kind) {
+        List<Entry> entries = new ArrayList<>();
+        for (Entry entry : this.entries) {
+            if (entry.kind == kind) entries.add(entry);
+        }
+        return entries;
+    }
+
+    public Entry getEntry(EvaluationProfiler.Kind kind, String name) {
+        for (Entry entry : this.entries) {
+            if (entry.kind == kind && entry.name.equals(name)) return entry;
+        }
+        return null;
+    }
+
+    public long getTotalNanos(EvaluationProfiler.Kind kind) {
+        long nanos = 0L;
+        for (Entry entry : this.entries) {
+            if (entry.kind == kind) nanos += entry.nanos;
+        }
+        return nanos;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (Entry entry : this.entries) builder.append(entry).append('\n');
+        return builder.toString();
+    }
+
+    public static final class Entry {
+        private final EvaluationProfiler.Kind kind;
+        private final String name;
+        private final long count;
+        private final long nanos;
+        private final long allocatedBytes;
+
+        Entry(EvaluationProfiler.Kind kind, String name, long count, long nanos, long allocatedBytes) {
+            this.kind = kind;
+            this.name = name;
+            this.count = count;
+            this.nanos = nanos;
+            this.allocatedBytes = allocatedBytes;
+        }
+
+        public EvaluationProfiler.Kind getKind() {
+            return this.kind;
+        }
+
+        public String getName() {
+            return this.name;
+        }
+
+        public long getCount() {
+            return this.count;
+        }
+
+        public long getNanos() {
+            return this.nanos;
+        }
+
+        /**
+         * The bytes allocated while evaluating, or -1 when the profiler does not track allocations.
+         */
+        public long getAllocatedBytes() {
+            return this.allocatedBytes;
+        }
+
+        public double getAverageNanos() {
+            return this.count == 0L ? 0.0 : (double) this.nanos / this.count;
+        }
+
+        @Override
+        public String toString() {
+            return this.kind + " " + this.name + ": count=" + this.count + ", nanos=" + this.nanos + ", bytes=" + this.allocatedBytes;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package celestialexpressions;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The generator behind the standard module's {@code random} variable and {@code randomRange} function. Every thread
+ * draws from its own generator, so threads evaluating expressions at the same time never contend for one.
+ * <p>
+ * A seeded source gives each thread a {@link SplittableRandom} split from the seed, in the order in which threads first
+ * draw from it. A single thread therefore always sees the same sequence for the same seed, and {@link #reset()} starts
+ * the sequences over, for tests and replays.
+ */
+public final class RandomSource {
+    /**
+     * Draws from {@link ThreadLocalRandom} and cannot be reproduced.
+     */
+    public static final RandomSource SYSTEM = new RandomSource();
+
+    private final long seed;
+    private final boolean seeded;
+    // Replaced as a whole by reset, so threads drop the generators of the previous run.
+    private volatile Generators generators;
+
+    private RandomSource() {
+        this.seed = 0L;
+        this.seeded = false;
+    }
+
+    public RandomSource(long seed) {
+        this.seed = seed;
+        this.seeded = true;
+        this.generators = new Generators(seed);
+    }
+
+    public boolean isSeeded() {
+        return this.seeded;
+    }
+
+    /**
+     * @throws IllegalStateException if the source is not seeded.
+     */
+    public long getSeed() {
+        if (!this.seeded) throw new IllegalStateException("Random source is not seeded.");
+        return this.seed;
+    }
+
+    /**
+     * Starts every thread's sequence over from the seed. Does nothing for an unseeded source.
+     */
+    public void reset() {
+        if (this.seeded) this.generators = new Generators(this.seed);
+    }
+
+    /**
+     * Returns a value between 0.0 inclusive and 1.0 exclusive.
+     */
+    public double next() {
+        if (!this.seeded) return ThreadLocalRandom.current().nextDouble();
+        return this.generators.get().nextDouble();
+    }
+
+    /**
+     * Returns a value between {@code from} inclusive and {@code to} exclusive. The bounds may be given in either order.
+     */
+    public double next(double from, double to) {
+        return from + (to - from) * this.next();
+    }
+
+    /**
+     * Hashes {@code seed} to a value between 0.0 inclusive and 1.0 exclusive with the SplitMix64 finalizer. The result
+     * only depends on {@code seed}, on every thread and in every run; 0.0 and -0.0 hash alike.
+     */
+    public static double hash(double seed) {
+        long z = Double.doubleToLongBits(seed + 0.0) + 0x9e3779b97f4a7c15L;
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        z = z ^ (z >>> 31);
+        return (z >>> 11) * 0x1.0p-53;
+    }
+
+    private static final class Generators extends ThreadLocal<SplittableRandom> {
+        private final SplittableRandom root;
+
+        private Generators(long seed) {
+            this.root = new SplittableRandom(seed);
+        }
+
+        // SplittableRandom is not thread-safe, and splitting advances the root.
+        protected synchronized SplittableRandom initialValue() {
+            return this.root.split();
+        }
+    }
+}
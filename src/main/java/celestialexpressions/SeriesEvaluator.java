@@ -0,0 +1,187 @@
+package celestialexpressions;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Evaluates an expression over a range of values of one variable, such as {@code localSecondOfDay} or a host variable
+ * {@code t}, and streams the results into a buffer or file. Sample {@code i} is taken at {@code start + i * step}.
+ * Every reference to the variable is driven, whether it is written qualified or not, as is a parameter of that name.
+ * <p>
+ * Samples are computed in chunks with a {@link BatchEvaluator}, so the only allocations are per chunk buffer, not
+ * per sample. Like a batch evaluator, an instance must not be used by several threads at once, but
+ * {@link #evaluateParallel} splits one range across a fork/join pool when the expression is pure apart from the driven
+ * variable.
+ */
+public final class SeriesEvaluator {
+    private static final int CHUNK = 1024;
+    private static final int MIN_SPLIT = 16 * CHUNK;
+
+    private final Expression expression;
+    private final String variable;
+    private final List<String> driven = new ArrayList<>();
+    private final boolean pure;
+    private BatchEvaluator evaluator;
+
+    public SeriesEvaluator(Expression expression, String variable) {
+        this.expression = Dependencies.tree(expression);
+        this.variable = variable;
+        String local = localName(variable);
+        Dependencies dependencies = Dependencies.of(this.expression);
+        for (String id : dependencies.getVariables()) {
+            if (localName(id).equals(local)) this.driven.add(id);
+        }
+        if (dependencies.getParameters().contains(variable)) this.driven.add(variable);
+        this.pure = this.isPure(this.expression);
+    }
+
+    private static String localName(String name) {
+        return name.substring(name.indexOf(':') + 1);
+    }
+
+    public String getVariable() {
+        return this.variable;
+    }
+
+    /**
+     * Whether the expression reads nothing impure besides the driven variable, so that samples can be computed in any
+     * order and on any thread.
+     */
+    public boolean isParallelizable() {
+        return this.pure;
+    }
+
+    private boolean isPure(Expression node) {
+        if (node instanceof Expression.Const || node instanceof Expression.Param) return true;
+        if (node instanceof Expression.Var) {
+            Expression.Var variable = (Expression.Var) node;
+            return variable.isPure() || this.driven.contains(variable.getId());
+        }
+        if (node instanceof Expression.UnaryOperator) return this.isPure(((Expression.UnaryOperator) node).getExpression());
+        if (node instanceof Expression.BinaryOperator) {
+            Expression.BinaryOperator operator = (Expression.BinaryOperator) node;
+            return this.isPure(operator.getLHS()) && this.isPure(operator.getRHS());
+        }
+        if (node instanceof Expression.Fun) {
+            Expression.Fun function = (Expression.Fun) node;
+            if (!function.getFunction().isPure()) return false;
+            for (IExpression<?> param : function.getParams()) {
+                if (param instanceof Expression && !this.isPure((Expression) param)) return false;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Writes {@code count} samples to {@code out}, starting at its position and advancing it.
+     */
+    public void evaluate(double start, double step, int count, DoubleBuffer out) {
+        checkRange(count, out);
+        if (this.evaluator == null) this.evaluator = new BatchEvaluator(this.expression);
+        new Chunks(this.evaluator, this.driven).run(start, step, 0, count, out);
+    }
+
+    /**
+     * Writes {@code count} samples to {@code file} as little-endian doubles, replacing its contents. The file is
+     * memory-mapped and written in place.
+     */
+    public void evaluate(double start, double step, int count, Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            DoubleBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) count * Double.BYTES).order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+            if (this.pure) this.evaluateParallel(start, step, count, out, ForkJoinPool.commonPool());
+            else this.evaluate(start, step, count, out);
+        }
+    }
+
+    public void evaluateParallel(double start, double step, int count, DoubleBuffer out) {
+        this.evaluateParallel(start, step, count, out, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Like {@link #evaluate(double, double, int, DoubleBuffer)}, but splits the range across {@code pool}. An
+     * expression that is not {@link #isParallelizable() parallelizable} is evaluated on the calling thread instead.
+     */
+    public void evaluateParallel(double start, double step, int count, DoubleBuffer out, ForkJoinPool pool) {
+        checkRange(count, out);
+        if (!this.pure || count < 2 * MIN_SPLIT || pool.getParallelism() < 2) {
+            this.evaluate(start, step, count, out);
+            return;
+        }
+        int threshold = Math.max(MIN_SPLIT, count / (pool.getParallelism() * 4));
+        pool.invoke(new Split(this.expression, this.driven, start, step, 0, count, out.duplicate(), threshold));
+        out.position(out.position() + count);
+    }
+
+    private static void checkRange(int count, DoubleBuffer out) {
+        if (count < 0) throw new IllegalArgumentException("Sample count must not be negative.");
+        if (out.remaining() < count) throw new IllegalArgumentException("Output has room for " + out.remaining() + " samples, but " + count + " were requested.");
+    }
+
+    // The column of sample values and the results of one chunk, reused for every chunk of a range.
+    private static final class Chunks {
+        private final BatchEvaluator evaluator;
+        private final BatchEvaluator.Bindings bindings = new BatchEvaluator.Bindings();
+        private final double[] samples = new double[CHUNK];
+        private final double[] results = new double[CHUNK];
+
+        private Chunks(BatchEvaluator evaluator, List<String> driven) {
+            this.evaluator = evaluator;
+            for (String id : driven) this.bindings.bind(id, this.samples);
+        }
+
+        // Samples from..to of the range, written at the position of out.
+        private void run(double start, double step, int from, int to, DoubleBuffer out) {
+            for (int offset = from; offset < to; offset += CHUNK) {
+                int n = Math.min(CHUNK, to - offset);
+                for (int i = 0; i < n; i++) this.samples[i] = start + (offset + i) * step;
+                this.evaluator.evaluate(this.bindings, this.results, n);
+                out.put(this.results, 0, n);
+            }
+        }
+    }
+
+    private static final class Split extends RecursiveAction {
+        private final Expression expression;
+        private final List<String> driven;
+        private final double start;
+        private final double step;
+        private final int from;
+        private final int to;
+        // Positioned where sample 0 of the range goes.
+        private final DoubleBuffer out;
+        private final int threshold;
+
+        private Split(Expression expression, List<String> driven, double start, double step, int from, int to, DoubleBuffer out, int threshold) {
+            this.expression = expression;
+            this.driven = driven;
+            this.start = start;
+            this.step = step;
+            this.from = from;
+            this.to = to;
+            this.out = out;
+            this.threshold = threshold;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from <= this.threshold) {
+                DoubleBuffer out = this.out.duplicate();
+                out.position(out.position() + this.from);
+                new Chunks(new BatchEvaluator(this.expression), this.driven).run(this.start, this.step, this.from, this.to, out);
+                return;
+            }
+            int middle = (this.from + this.to) >>> 1;
+            invokeAll(new Split(this.expression, this.driven, this.start, this.step, this.from, middle, this.out, this.threshold),
+                    new Split(this.expression, this.driven, this.start, this.step, middle, this.to, this.out, this.threshold));
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package celestialexpressions;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The time source of the standard module's time variables. A reading is kept for one tick after it is taken, so every
+ * expression evaluated within that tick sees the same time and the clock and time zone rules are only consulted once.
+ * {@link #refresh()} takes a new reading immediately.
+ */
+public final class SnapshotClock {
+    /**
+     * Reads the system clock every time, which is how the time variables have always behaved.
+     */
+    public static final SnapshotClock SYSTEM = new SnapshotClock(Clock.systemDefaultZone(), Duration.ZERO);
+
+    private final Clock clock;
+    private final long tick;
+    private final AtomicLong generations = new AtomicLong();
+    private volatile Snapshot snapshot;
+
+    /**
+     * @param tick how long a reading is reused. {@link Duration#ZERO} reads the clock every time.
+     */
+    public SnapshotClock(Clock clock, Duration tick) {
+        if (tick.isNegative()) throw new IllegalArgumentException("Tick must not be negative.");
+        this.clock = clock;
+        this.tick = saturatedNanos(tick);
+    }
+
+    /**
+     * A clock that only moves when {@link #refresh()} is called, for hosts that refresh once per frame and for tests.
+     */
+    public static SnapshotClock manual(Clock clock) {
+        SnapshotClock snapshotClock = new SnapshotClock(clock, Duration.ofNanos(Long.MAX_VALUE));
+        snapshotClock.refresh();
+        return snapshotClock;
+    }
+
+    private static long saturatedNanos(Duration duration) {
+        try {
+            return duration.toNanos();
+        } catch (ArithmeticException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    public Clock getClock() {
+        return this.clock;
+    }
+
+    public Duration getTick() {
+        return Duration.ofNanos(this.tick);
+    }
+
+    /**
+     * Takes a new reading, which is kept until the tick runs out. A clock with a zero tick keeps no reading, so this
+     * does nothing for it.
+     */
+    public void refresh() {
+        if (this.isLive()) return;
+        this.snapshot = this.take();
+    }
+
+    public LocalDateTime now() {
+        return this.current().time;
+    }
+
+    public Instant instant() {
+        return this.current().instant;
+    }
+
+    /**
+     * Counts the readings taken so far; it changes whenever {@link #now()} may return a different time.
+     *
+     * @throws IllegalStateException if the tick is zero, since such a clock may return a different time on every access
+     */
+    public long getGeneration() {
+        if (this.isLive()) throw new IllegalStateException("A clock with a zero tick has no generation.");
+        return this.current().generation;
+    }
+
+    boolean isLive() {
+        return this.tick == 0L;
+    }
+
+    private Snapshot take() {
+        return new Snapshot(this.clock, this.generations.incrementAndGet());
+    }
+
+    private Snapshot current() {
+        // Live readings are never compared, so they are not counted; counting them would contend on every access.
+        if (this.tick == 0L) return new Snapshot(this.clock, 0L);
+        Snapshot snapshot = this.snapshot;
+        if (snapshot == null || (this.tick != Long.MAX_VALUE && System.nanoTime() - snapshot.taken >= this.tick)) {
+            snapshot = this.take();
+            this.snapshot = snapshot;
+        }
+        return snapshot;
+    }
+
+    private static final class Snapshot {
+        private final Instant instant;
+        private final LocalDateTime time;
+        private final long taken;
+        private final long generation;
+
+        private Snapshot(Clock clock, long generation) {
+            this.instant = clock.instant();
+            this.time = LocalDateTime.ofInstant(this.instant, clock.getZone());
+            this.taken = System.nanoTime();
+            this.generation = generation;
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package celestialexpressions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Hash-conses structurally equal pure subtrees of one or more expressions into single nodes, then wraps every
+ * operator or call that ends up with more than one parent in a {@link Shared} node that evaluates it once per cycle.
+ * Impure variables and impure functions are never merged, since every occurrence has to run on its own.
+ */
+final class SubexpressionEliminator {
+    private final Map<Key, Expression> canonical = new HashMap<>();
+    private final Set<Expression> pure = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Map<Expression, Integer> parents = new IdentityHashMap<>();
+    private final Map<Expression, Expression> rebuilt = new IdentityHashMap<>();
+    private final Cycle cycle;
+    private int shared;
+
+    SubexpressionEliminator(Cycle cycle) {
+        this.cycle = cycle;
+    }
+
+    /**
+     * Returns the roots with shared subtrees, in the same order.
+     */
+    List<Expression> eliminate(List<Expression> roots) {
+        List<Expression> interned = new ArrayList<>(roots.size());
+        for (Expression root : roots) interned.add(this.intern(root));
+        for (Expression root : interned) this.count(root);
+        List<Expression> result = new ArrayList<>(interned.size());
+        for (Expression root : interned) result.add(this.share(root));
+        return result;
+    }
+
+    int getSharedCount() {
+        return this.shared;
+    }
+
+    private Expression intern(Expression node) {
+        if (node instanceof Expression.Const) {
+            return this.canonical(node, new Key(Expression.Const.class, ((Expression.Const) node).getConstant()));
+        }
+        if (node instanceof Expression.Var) {
+            Expression.Var variable = (Expression.Var) node;
+            if (!variable.isPure()) return node;
+            return this.canonical(node, new Key(Expression.Var.class, variable.getSupplier()));
+        }
+        if (node instanceof Expression.Param) {
+            return this.canonical(node, new Key(Expression.Param.class, ((Expression.Param) node).getIndex()));
+        }
+        if (node instanceof Expression.UnaryOperator) {
+            Expression.UnaryOperator operator = (Expression.UnaryOperator) node;
+            Expression operand = this.intern(operator.getExpression());
+            Expression result = operand == operator.getExpression() ? operator : operator.copy(operand);
+            if (!this.isPure(operand)) return result;
+            return this.canonical(result, new Key(operator.getClass(), null, operand));
+        }
+        if (node instanceof Expression.BinaryOperator) {
+            Expression.BinaryOperator operator = (Expression.BinaryOperator) node;
+            Expression lhs = this.intern(operator.getLHS());
+            Expression rhs = this.intern(operator.getRHS());
+            Expression result = lhs == operator.getLHS() && rhs == operator.getRHS() ? operator : operator.copy(lhs, rhs);
+            if (!this.isPure(lhs) || !this.isPure(rhs)) return result;
+            return this.canonical(result, new Key(operator.getClass(), null, lhs, rhs));
+        }
+        if (node instanceof Expression.Fun) {
+            Expression.Fun function = (Expression.Fun) node;
+            ArrayList<IExpression<?>> params = new ArrayList<>(function.getParams().size());
+            Object[] children = new Object[function.getParams().size()];
+            boolean changed = false;
+            boolean pure = function.getFunction().isPure();
+            for (int i = 0; i < children.length; i++) {
+                IExpression<?> param = function.getParams().get(i);
+                if (param instanceof Expression) {
+                    Expression interned = this.intern((Expression) param);
+                    changed |= interned != param;
+                    pure &= this.isPure(interned);
+                    params.add(interned);
+                    children[i] = interned;
+                } else {
+                    params.add(param);
+                    // String arguments are compared by value, everything else by identity.
+                    if (param instanceof Expression.SExpression.Const) children[i] = ((Expression.SExpression.Const) param).str;
+                    else children[i] = param;
+                }
+            }
+            Expression result = changed ? new Expression.Fun(function.getName(), function.getFunction(), params) : function;
+            if (!pure) return result;
+            return this.canonical(result, new Key(Expression.Fun.class, function.getFunction(), children));
+        }
+        return node;
+    }
+
+    // Only canonical nodes are pure; anything that was left out of the table reads something impure.
+    private boolean isPure(Expression node) {
+        return this.pure.contains(node);
+    }
+
+    private Expression canonical(Expression node, Key key) {
+        Expression existing = this.canonical.putIfAbsent(key, node);
+        if (existing != null) return existing;
+        this.pure.add(node);
+        return node;
+    }
+
+    private void count(Expression node) {
+        Integer count = this.parents.get(node);
+        this.parents.put(node, count == null ? 1 : count + 1);
+        if (count != null) return;
+        for (Expression child : children(node)) this.count(child);
+    }
+
+    private Expression share(Expression node) {
+        Expression done = this.rebuilt.get(node);
+        if (done != null) return done;
+        Expression result = node;
+        if (node instanceof Expression.UnaryOperator) {
+            Expression.UnaryOperator operator = (Expression.UnaryOperator) node;
+            Expression operand = this.share(operator.getExpression());
+            if (operand != operator.getExpression()) result = operator.copy(operand);
+        } else if (node instanceof Expression.BinaryOperator) {
+            Expression.BinaryOperator operator = (Expression.BinaryOperator) node;
+            Expression lhs = this.share(operator.getLHS());
+            Expression rhs = this.share(operator.getRHS());
+            if (lhs != operator.getLHS() || rhs != operator.getRHS()) result = operator.copy(lhs, rhs);
+        } else if (node instanceof Expression.Fun) {
+            Expression.Fun function = (Expression.Fun) node;
+            ArrayList<IExpression<?>> params = new ArrayList<>(function.getParams().size());
+            boolean changed = false;
+            for (IExpression<?> param : function.getParams()) {
+                IExpression<?> rebuilt = param instanceof Expression ? this.share((Expression) param) : param;
+                changed |= rebuilt != param;
+                params.add(rebuilt);
+            }
+            if (changed) result = new Expression.Fun(function.getName(), function.getFunction(), params);
+        }
+        if (this.parents.get(node) > 1 && !(node instanceof Expression.Const) && !(node instanceof Expression.Var)
+                && !(node instanceof Expression.Param)) {
+            result = new Shared(result, this.cycle);
+            this.shared++;
+        }
+        this.rebuilt.put(node, result);
+        return result;
+    }
+
+    private static List<Expression> children(Expression node) {
+        List<Expression> children = new ArrayList<>(2);
+        if (node instanceof Expression.UnaryOperator) {
+            children.add(((Expression.UnaryOperator) node).getExpression());
+        } else if (node instanceof Expression.BinaryOperator) {
+            children.add(((Expression.BinaryOperator) node).getLHS());
+            children.add(((Expression.BinaryOperator) node).getRHS());
+        } else if (node instanceof Expression.Fun) {
+            for (IExpression<?> param : ((Expression.Fun) node).getParams()) {
+                if (param instanceof Expression) children.add((Expression) param);
+            }
+        }
+        return children;
+    }
+
+    /**
+     * Identifies a node by its type, its payload and the identity of its already canonical children.
+     */
+    private static final class Key {
+        private final Class<?> type;
+        private final Object payload;
+        private final Object[] children;
+        private final int hash;
+
+        private Key(Class<?> type, Object payload, Object... children) {
+            this.type = type;
+            this.payload = payload;
+            this.children = children;
+            int hash = type.hashCode() * 31 + Objects.hashCode(payload);
+            for (Object child : children) {
+                hash = hash * 31 + (child instanceof String ? child.hashCode() : System.identityHashCode(child));
+            }
+            this.hash = hash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) return false;
+            Key key = (Key) other;
+            if (this.type != key.type || !Objects.equals(this.payload, key.payload) || this.children.length != key.children.length) return false;
+            for (int i = 0; i < this.children.length; i++) {
+                Object a = this.children[i];
+                Object b = key.children[i];
+                if (a instanceof String ? !a.equals(b) : a != b) return false;
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+
+        @Override
+        public String toString() {
+            return this.type.getSimpleName() + Arrays.toString(this.children);
+        }
+    }
+
+    /**
+     * Counts evaluation cycles. Shared nodes evaluated in the same cycle reuse their first result.
+     */
+    static final class Cycle {
+        long current;
+    }
+
+    static final class Shared implements Expression {
+        private final Expression expression;
+        private final Cycle cycle;
+        private long evaluated = -1L;
+        private double value;
+
+        Shared(Expression expression, Cycle cycle) {
+            this.expression = expression;
+            this.cycle = cycle;
+        }
+
+        Expression getExpression() {
+            return this.expression;
+        }
+
+        public double evaluate() {
+            long current = this.cycle.current;
+            if (this.evaluated == current) return this.value;
+            double value = this.expression.evaluate();
+            this.value = value;
+            this.evaluated = current;
+            return value;
+        }
+
+        // Every place of a group is evaluated with the same arguments in one cycle, so the value can be reused as well.
+        public double evaluate(double[] args) {
+            long current = this.cycle.current;
+            if (this.evaluated == current) return this.value;
+            double value = this.expression.evaluate(args);
+            this.value = value;
+            this.evaluated = current;
+            return value;
+        }
+
+        @Override
+        public String toString() {
+            return this.expression.toString();
+        }
+    }
+}
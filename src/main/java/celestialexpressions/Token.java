@@ -2,8 +2,8 @@ package celestialexpressions;
 
 
 public class Token {
-    public String text;
-    public Token.Type type;
+    public final String text;
+    public final Token.Type type;
 
     public Token(Type type, String text) {
         this.type = type;
@@ -16,21 +16,8 @@ public class Token {
             case VARIABLE:
             case NULLARY:
                 return new Expression.Var(this.text, context); 
-            case UNARY: return new Expression.Negate();
+            case UNARY:
             case BINARY:
-                switch (this.text) {
-                    case "+": return new Expression.Add();
-                    case "-": return new Expression.Sub();
-                    case "*": return new Expression.Mul();
-                    case "/": return new Expression.Div();
-                    case "^": return new Expression.Pow();
-                    case "&": return new Expression.And();
-                    case "|": return new Expression.Or();
-                    case "=": return new Expression.Eq();
-                    case ">": return new Expression.Gtr();
-                    case "<": return new Expression.Lss();
-                    default: throw new ParsingException("Invalid character was not caught. Please report this exception.");
-                }
             case SPLITTER:
             case GROUPING_START:
             case GROUPING_END:
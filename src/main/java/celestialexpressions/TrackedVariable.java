@@ -0,0 +1,37 @@
+package celestialexpressions;
+
+/**
+ * A variable whose value is set by the host. Register it with {@link ModuleBuilder#addVariable(String, Expression)} and
+ * call {@link #set(double)} when the value changes, so that {@link IncrementalExpression}s reading it only recompute
+ * then.
+ */
+public final class TrackedVariable implements Expression, Versioned {
+    private volatile double value;
+    private volatile long version;
+
+    public TrackedVariable(double value) {
+        this.value = value;
+    }
+
+    /**
+     * Changes the value. Setting the value it already has does not count as a change.
+     */
+    public synchronized void set(double value) {
+        if (Double.doubleToLongBits(value) == Double.doubleToLongBits(this.value)) return;
+        this.value = value;
+        this.version++;
+    }
+
+    public double evaluate() {
+        return this.value;
+    }
+
+    public long getVersion() {
+        return this.version;
+    }
+
+    @Override
+    public String toString() {
+        return String.valueOf(this.value);
+    }
+}
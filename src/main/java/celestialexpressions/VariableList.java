@@ -23,11 +23,38 @@ public class VariableList {
         }
     }
 
+    public void registerConstant(String name, double value) {
+        this.registerVariable(name, new Expression.Const(value));
+    }
+
+    public void registerImpureVariable(String name, Expression supplier) {
+        this.registerVariable(name, new Impure(supplier));
+    }
+
+    public void registerPureVariable(String name, Expression supplier) {
+        this.registerVariable(name, new Pure(supplier));
+    }
+
     public VariableList with(String name, Expression supplier) {
         this.registerVariable(name, supplier);
         return this;
     }
 
+    public VariableList withConstant(String name, double value) {
+        this.registerConstant(name, value);
+        return this;
+    }
+
+    public VariableList withImpure(String name, Expression supplier) {
+        this.registerImpureVariable(name, supplier);
+        return this;
+    }
+
+    public VariableList withPure(String name, Expression supplier) {
+        this.registerPureVariable(name, supplier);
+        return this;
+    }
+
     public Expression getVariable(String name) {
         if (this.variables.containsKey(name)) {
             return this.variables.get(name);
@@ -44,6 +71,50 @@ public class VariableList {
         this.variables = new HashMap<>();
     }
 
+    /**
+     * Marks a variable that may return a different value every time it is read, even within a single evaluation,
+     * so the compiler never folds or duplicates it.
+     */
+    public static final class Impure implements Expression {
+        private final Expression supplier;
+
+        public Impure(Expression supplier) {
+            this.supplier = supplier;
+        }
+
+        public Expression getSupplier() {
+            return this.supplier;
+        }
+
+        @Override
+        public double evaluate() {
+            return this.supplier.evaluate();
+        }
+    }
+
+    /**
+     * Marks a variable that returns the same value however often it is read within a single evaluation, so the compiler
+     * may read it more than once where that is cheaper, as in rewriting {@code x ^ 2} to {@code x * x}. Variables
+     * registered without a mark are only guaranteed not to change while nobody sets them, and are read once per
+     * occurrence.
+     */
+    public static final class Pure implements Expression {
+        private final Expression supplier;
+
+        public Pure(Expression supplier) {
+            this.supplier = supplier;
+        }
+
+        public Expression getSupplier() {
+            return this.supplier;
+        }
+
+        @Override
+        public double evaluate() {
+            return this.supplier.evaluate();
+        }
+    }
+
     public static class NoSuchVariableException extends RuntimeException {
         public NoSuchVariableException(String message) {
             super(message);
@@ -0,0 +1,10 @@
+package celestialexpressions;
+
+/**
+ * Implemented by variable suppliers that can tell when their value changes. The version must grow every time the value
+ * may have changed and stay the same otherwise; {@link IncrementalExpression} reuses results computed from a supplier
+ * for as long as its version stays the same.
+ */
+public interface Versioned {
+    long getVersion();
+}
@@ -0,0 +1,69 @@
+package celestialexpressions;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * The time variables either read the clock on every access or see one reading per frame.
+ */
+class ClockTest {
+    private static final class SteppingClock extends Clock {
+        private long millis;
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(this.millis += 1000);
+        }
+    }
+
+    @Test
+    void liveClocksReadOnEveryAccessAndHaveNoFrames() {
+        SnapshotClock clock = new SnapshotClock(new SteppingClock(), Duration.ZERO);
+        ExpressionContext context = new ExpressionContext(new ArrayList<>(), clock);
+        for (CompileOptions.Backend backend : CompileOptions.Backend.values()) {
+            Expression expression = ExpressionCompiler.compile("epochMilli", context, new CompileOptions().withBackend(backend));
+            double first = expression.evaluate();
+            assertEquals(first + 1000.0, expression.evaluate(), backend.name());
+        }
+        assertThrows(IllegalStateException.class, clock::getGeneration);
+        assertThrows(IllegalStateException.class, context::beginFrame);
+        assertThrows(IllegalStateException.class, () -> new ExpressionContext().beginFrame());
+    }
+
+    @Test
+    void framesPinTheTime() {
+        SnapshotClock clock = SnapshotClock.manual(new SteppingClock());
+        ExpressionContext context = new ExpressionContext(new ArrayList<>(), clock);
+        for (CompileOptions.Backend backend : CompileOptions.Backend.values()) {
+            Expression expression = IncrementalExpression.of(ExpressionCompiler.compile("epochMilli * 2", context, new CompileOptions().withBackend(backend)));
+            long generation = clock.getGeneration();
+            double first = expression.evaluate();
+            assertEquals(first, expression.evaluate(), backend.name());
+            assertEquals(generation, clock.getGeneration(), backend.name());
+
+            context.beginFrame();
+            assertNotEquals(generation, clock.getGeneration(), backend.name());
+            assertEquals(first + 2000.0, expression.evaluate(), backend.name());
+        }
+    }
+}
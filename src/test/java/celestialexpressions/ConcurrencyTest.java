@@ -0,0 +1,127 @@
+package celestialexpressions;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Compiled expressions and contexts are shared between threads without defensive copies.
+ */
+class ConcurrencyTest {
+    private static final int THREADS = 4;
+    private static final String[] SOURCES = {
+            "sin(x * 360 / 365) * 0.5 + 0.5",
+            "ifElse(x > y, x ^ 2, y ^ 2) - max(x, y, 1)",
+            "(x - y) / (x * y + 1) + sqrt(abs(x))",
+            "hashRandom(x) + floor(y)"
+    };
+
+    @Test
+    void modulesAreACopyOnWriteSnapshot() {
+        ExpressionContext context = new ExpressionContext();
+        List<Module> before = context.getModules();
+        assertThrows(UnsupportedOperationException.class, () -> before.add(new ModuleBuilder("other").build()));
+
+        context.addModule(new ModuleBuilder("other").build());
+        assertEquals(before.size() + 1, context.getModules().size());
+        assertEquals(1, before.size());
+    }
+
+    @Test
+    void compilingWhileModulesAreAddedGivesTheSameResults() throws Exception {
+        ExpressionContext context = new ExpressionContext();
+        double[][] args = new double[64][];
+        for (int i = 0; i < args.length; i++) args[i] = new double[] {i * 7.25 - 200.0, i * 0.5 - 10.0};
+        double[][] expected = new double[SOURCES.length][args.length];
+        for (int s = 0; s < SOURCES.length; s++) {
+            Expression expression = ExpressionCompiler.compile(SOURCES[s], context, "x", "y");
+            for (int i = 0; i < args.length; i++) expected[s][i] = expression.evaluate(args[i]);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS + 1);
+        try {
+            List<Callable<Integer>> tasks = new ArrayList<>();
+            tasks.add(() -> {
+                for (int i = 0; i < 200; i++) {
+                    ModuleBuilder builder = new ModuleBuilder("module" + i);
+                    builder.addConstant("constant" + i, i);
+                    context.addModule(builder.build());
+                }
+                return 0;
+            });
+            for (int t = 0; t < THREADS; t++) {
+                CompileOptions.Backend backend = CompileOptions.Backend.values()[t % CompileOptions.Backend.values().length];
+                tasks.add(() -> {
+                    int checked = 0;
+                    for (int round = 0; round < 20; round++) {
+                        for (int s = 0; s < SOURCES.length; s++) {
+                            Expression expression = ExpressionCompiler.compile(SOURCES[s], context, new CompileOptions().withBackend(backend), "x", "y");
+                            for (int i = 0; i < args.length; i++) {
+                                assertEquals(expected[s][i], expression.evaluate(args[i]), SOURCES[s] + " on " + backend);
+                                checked++;
+                            }
+                        }
+                    }
+                    return checked;
+                });
+            }
+            int checked = 0;
+            for (Future<Integer> future : executor.invokeAll(tasks)) checked += future.get();
+            assertEquals(THREADS * 20 * SOURCES.length * args.length, checked);
+        } finally {
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+        }
+    }
+
+    @Test
+    void reentrantEvaluationKeepsItsStack() {
+        for (CompileOptions.Backend backend : CompileOptions.Backend.values()) {
+            ExpressionContext context = new ExpressionContext();
+            Expression[] self = new Expression[1];
+            int[] level = new int[1];
+            ModuleBuilder builder = new ModuleBuilder("host");
+            // Reads the expression it is part of, three levels deep, halfway through evaluating it.
+            builder.addImpureVariable("inner", () -> level[0]++ < 3 ? self[0].evaluate() : 0.0);
+            context.addModule(builder.build());
+            self[0] = ExpressionCompiler.compile("1 + 2 * (3 + inner)", context, new CompileOptions().withBackend(backend));
+            level[0] = 0;
+            assertEquals(1 + 2 * (3 + (1 + 2 * (3 + (1 + 2 * (3 + (1 + 2 * 3)))))), self[0].evaluate(), backend.name());
+        }
+    }
+
+    @Test
+    void oneExpressionIsEvaluatedByManyThreads() throws Exception {
+        ExpressionContext context = new ExpressionContext();
+        for (CompileOptions.Backend backend : CompileOptions.Backend.values()) {
+            Expression expression = ExpressionCompiler.compile(SOURCES[1], context, new CompileOptions().withBackend(backend), "x", "y");
+            ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+            try {
+                List<Callable<Void>> tasks = new ArrayList<>();
+                for (int t = 0; t < THREADS; t++) {
+                    double x = t;
+                    tasks.add(() -> {
+                        double[] args = {x, 1.5};
+                        double expected = (x > 1.5 ? x * x : 2.25) - Math.max(Math.max(x, 1.5), 1.0);
+                        for (int i = 0; i < 100_000; i++) assertEquals(expected, expression.evaluate(args), backend.name());
+                        return null;
+                    });
+                }
+                for (Future<Void> future : executor.invokeAll(tasks)) future.get();
+            } finally {
+                executor.shutdown();
+                assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+            }
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package celestialexpressions;
+
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Every backend, and the boxed {@link Expression#invoke()} bridge, must give bit for bit the same result as walking the
+ * tree with {@link Expression#evaluate()}.
+ */
+class EvaluationTest {
+    private static final String[] SOURCES = {
+            "a + b * 2",
+            "(a - b) / (a + 1)",
+            "-a ^ 2 + b",
+            "a ^ 3 - b ^ 0.5",
+            "a > b",
+            "a < b & b > 0",
+            "a = b | a > 1",
+            "sin(a * 360 / 365) * 0.5 + 0.5",
+            "max(a, b, 3) - min(a, b) + abs(-b)",
+            "ifElse(a > b, sqrt(a), cosr(b))",
+            "1 / (a - a)",
+            "pi * a - e"
+    };
+    private static final double[][] VALUES = {
+            {0.0, 0.0}, {1.0, 2.0}, {-3.5, 0.25}, {365.0, 1e-9}, {-0.0, -7.0}, {1e300, 1e-300}, {Double.NaN, 1.0}
+    };
+
+    @Test
+    void backendsAgreeWithTheTree() {
+        ExpressionContext context = new ExpressionContext();
+        ModuleBuilder builder = new ModuleBuilder("host");
+        TrackedVariable a = builder.addTrackedVariable("a", 0.0);
+        TrackedVariable b = builder.addTrackedVariable("b", 0.0);
+        context.addModule(builder.build());
+
+        for (String source : SOURCES) {
+            Expression tree = ExpressionCompiler.compile(source, context);
+            Expression bytecode = ExpressionCompiler.compile(source, context, new CompileOptions().withBackend(CompileOptions.Backend.BYTECODE));
+            Expression postfix = ExpressionCompiler.compile(source, context, new CompileOptions().withBackend(CompileOptions.Backend.POSTFIX));
+            for (double[] values : VALUES) {
+                a.set(values[0]);
+                b.set(values[1]);
+                double expected = tree.evaluate();
+                String message = source + " with a = " + values[0] + ", b = " + values[1];
+                assertEquals(expected, tree.invoke(), message);
+                assertEquals(expected, bytecode.evaluate(), message);
+                assertEquals(expected, postfix.evaluate(), message);
+            }
+        }
+    }
+
+    @Test
+    void parametersAgreeWithVariables() {
+        ExpressionContext context = new ExpressionContext();
+        ModuleBuilder builder = new ModuleBuilder("host");
+        TrackedVariable a = builder.addTrackedVariable("a", 0.0);
+        TrackedVariable b = builder.addTrackedVariable("b", 0.0);
+        context.addModule(builder.build());
+
+        for (String source : SOURCES) {
+            Expression variables = ExpressionCompiler.compile(source, context);
+            for (CompileOptions.Backend backend : CompileOptions.Backend.values()) {
+                Expression parameters = ExpressionCompiler.compile(source, context, new CompileOptions().withBackend(backend), "a", "b");
+                for (double[] values : VALUES) {
+                    a.set(values[0]);
+                    b.set(values[1]);
+                    assertEquals(variables.evaluate(), parameters.evaluate(values), source + " on " + backend);
+                }
+            }
+        }
+    }
+
+    @Test
+    void squaringReadsHostVariablesOnce() {
+        int[] reads = new int[2];
+        ExpressionContext context = new ExpressionContext();
+        ModuleBuilder builder = new ModuleBuilder("host");
+        builder.addVariable("h", () -> ++reads[0]);
+        builder.addPureVariable("p", () -> {
+            reads[1]++;
+            return 3.0;
+        });
+        context.addModule(builder.build());
+
+        for (CompileOptions.Backend backend : CompileOptions.Backend.values()) {
+            CompileOptions options = new CompileOptions().withBackend(backend);
+            reads[0] = 0;
+            reads[1] = 0;
+            // Were h read twice, the two reads would see 1 and 2.
+            assertEquals(1.0, ExpressionCompiler.compile("h ^ 2", context, options).evaluate(), backend.name());
+            assertEquals(1, reads[0], backend.name());
+            assertEquals(9.0, ExpressionCompiler.compile("p ^ 2", context, options).evaluate(), backend.name());
+            assertEquals(2, reads[1], backend.name());
+            assertEquals(6.25, ExpressionCompiler.compile("x ^ 2", context, options, "x").evaluate(new double[] {2.5}), backend.name());
+        }
+    }
+
+    @Test
+    void arithmeticDoesNotAllocate() {
+        assertNoAllocation(new ExpressionContext(new ArrayList<>()), "(x * 360 / 365 - 1) ^ 2 * 0.5 + -x / (x + 2)");
+    }
+
+    @Test
+    void primitiveCallsDoNotAllocate() {
+        assertNoAllocation(new ExpressionContext(), "sin(x) + max(x, 1) - min(x, 2)");
+        assertNoAllocation(new ExpressionContext(), "max(x, 1, 2) - min(x, 2, 3)");
+        assertNoAllocation(new ExpressionContext(), "max(x, 1, 2, 3) + min(x, 2, 3, 4)");
+    }
+
+    /**
+     * Adds a host variable {@code x} to {@code context}, then evaluates {@code source} on every backend and fails if that
+     * allocates.
+     */
+    static void assertNoAllocation(ExpressionContext context, String source) {
+        Assumptions.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assumptions.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        ModuleBuilder builder = new ModuleBuilder("allocation");
+        TrackedVariable x = builder.addTrackedVariable("x", 0.5);
+        context.addModule(builder.build());
+        for (CompileOptions.Backend backend : CompileOptions.Backend.values()) {
+            Expression expression = ExpressionCompiler.compile(source, context, new CompileOptions().withBackend(backend));
+            int iterations = 200_000;
+            double sink = 0.0;
+            for (int i = 0; i < iterations; i++) sink += expression.evaluate();
+            long before = threads.getCurrentThreadAllocatedBytes();
+            for (int i = 0; i < iterations; i++) {
+                x.set(i * 0.01);
+                sink += expression.evaluate();
+            }
+            long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+            assertTrue(!Double.isNaN(sink));
+            // A single boxed Double per evaluation would be 16 bytes each; the margin only covers the measurement itself.
+            assertTrue(allocated < 1024, allocated + " bytes allocated in " + iterations + " evaluations of " + source + " on " + backend + ".");
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package celestialexpressions;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the error bounds documented on {@link FastMath} against {@link Math} on random arguments, and that
+ * {@link CompileOptions.Precision#FAST} stays within them on every backend.
+ */
+class FastMathTest {
+    private static final int SAMPLES = 1_000_000;
+
+    @Test
+    void sineAndCosineStayWithinBounds() {
+        SplittableRandom random = new SplittableRandom(1);
+        for (int i = 0; i < SAMPLES; i++) {
+            // Mostly small arguments, where configs spend their time, and the rest up to the range limit.
+            double radians = i % 4 == 0 ? random.nextDouble(-FastMath.MAX_RADIANS, FastMath.MAX_RADIANS) : random.nextDouble(-10.0, 10.0);
+            double degrees = i % 4 == 0 ? random.nextDouble(-FastMath.MAX_DEGREES, FastMath.MAX_DEGREES) : random.nextDouble(-720.0, 720.0);
+            assertWithin(Math.sin(radians), FastMath.sin(radians), 5e-7, "sin", radians);
+            assertWithin(Math.cos(radians), FastMath.cos(radians), 5e-7, "cos", radians);
+            assertWithin(Math.sin(Math.toRadians(degrees)), FastMath.sinDegrees(degrees), 5e-7, "sinDegrees", degrees);
+            assertWithin(Math.cos(Math.toRadians(degrees)), FastMath.cosDegrees(degrees), 5e-7, "cosDegrees", degrees);
+        }
+    }
+
+    @Test
+    void tangentStaysWithinRelativeBound() {
+        SplittableRandom random = new SplittableRandom(2);
+        for (int i = 0; i < SAMPLES; i++) {
+            double radians = random.nextDouble(-100.0, 100.0);
+            double expected = Math.tan(radians);
+            assertWithin(expected, FastMath.tan(radians), 1e-6 * Math.abs(expected), "tan", radians);
+
+            // Near the poles Math.toRadians rounds too early to be a fair reference, so it is reduced exactly first.
+            double degrees = random.nextDouble(-720.0, 720.0);
+            double k = Math.rint(degrees / 90.0);
+            double r = Math.toRadians(degrees - 90.0 * k);
+            expected = ((long) k & 1) == 0 ? Math.tan(r) : -1.0 / Math.tan(r);
+            assertWithin(expected, FastMath.tanDegrees(degrees), 1e-6 * Math.abs(expected), "tanDegrees", degrees);
+        }
+    }
+
+    @Test
+    void specialValuesMatchMath() {
+        double[] values = {0.0, -0.0, Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, 2e6, -3e9};
+        for (double value : values) {
+            assertEquals(Math.sin(value), FastMath.sin(value), 5e-7);
+            assertEquals(Math.cos(value), FastMath.cos(value), 5e-7);
+            assertEquals(Math.sin(Math.toRadians(value)), FastMath.sinDegrees(value), 5e-7);
+        }
+        assertEquals(Double.doubleToLongBits(-0.0), Double.doubleToLongBits(FastMath.sin(-0.0)));
+        assertEquals(Double.doubleToLongBits(-0.0), Double.doubleToLongBits(FastMath.tan(-0.0)));
+        assertEquals(Double.doubleToLongBits(-0.0), Double.doubleToLongBits(FastMath.sinDegrees(-0.0)));
+    }
+
+    @Test
+    void powersStayWithinBounds() {
+        SplittableRandom random = new SplittableRandom(3);
+        for (int i = 0; i < SAMPLES; i++) {
+            // Bases across the whole range of doubles, so that overflow and underflow are reached as well.
+            double base = Math.scalb(random.nextDouble(0.5, 1.0) * (random.nextBoolean() ? 1 : -1), random.nextInt(-1100, 1100));
+            int exponent = random.nextInt(-FastMath.MAX_EXPONENT, FastMath.MAX_EXPONENT + 1);
+            double expected = Math.pow(base, exponent);
+            double actual = FastMath.pow(base, exponent);
+            if (expected == 0.0 || Double.isInfinite(expected)) {
+                assertEquals(expected, actual, "pow(" + base + ", " + exponent + ")");
+            } else {
+                assertWithin(expected, actual, (Math.abs(exponent) + 1) * Math.ulp(expected), "pow(" + base + ", " + exponent + ")", base);
+            }
+        }
+        assertEquals(1e-310, FastMath.pow(1e155, -2));
+        double[] bases = {0.0, -0.0, 1.0, -1.0, Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.MIN_VALUE};
+        for (double base : bases) {
+            for (int exponent = -FastMath.MAX_EXPONENT; exponent <= FastMath.MAX_EXPONENT; exponent++) {
+                assertEquals(Math.pow(base, exponent), FastMath.pow(base, exponent), "pow(" + base + ", " + exponent + ")");
+            }
+        }
+    }
+
+    @Test
+    void fastPrecisionStaysCloseToExactOnEveryBackend() {
+        ExpressionContext context = new ExpressionContext();
+        String[] sources = {"sin(x)", "cos(x)", "sinr(x)", "cosr(x)", "tan(x)", "x ^ 5", "x ^ -3"};
+        SplittableRandom random = new SplittableRandom(4);
+        for (CompileOptions.Backend backend : CompileOptions.Backend.values()) {
+            for (String source : sources) {
+                Expression exact = ExpressionCompiler.compile(source, context, new CompileOptions().withBackend(backend), "x");
+                Expression fast = ExpressionCompiler.compile(source, context,
+                        new CompileOptions().withBackend(backend).withPrecision(CompileOptions.Precision.FAST), "x");
+                for (int i = 0; i < 10_000; i++) {
+                    double[] args = {random.nextDouble(-400.0, 400.0)};
+                    double expected = exact.evaluate(args);
+                    double tolerance;
+                    if (source.startsWith("tan")) tolerance = 1e-6 * Math.abs(expected);
+                    else if (source.contains("^")) tolerance = 6 * Math.ulp(expected);
+                    else tolerance = 5e-7;
+                    assertWithin(expected, fast.evaluate(args), tolerance, source + " on " + backend, args[0]);
+                }
+            }
+        }
+    }
+
+    @Test
+    void cachedExpressionsKeepTheirPrecision() {
+        ExpressionContext context = new ExpressionContext();
+        ModuleBuilder builder = new ModuleBuilder("host");
+        builder.addTrackedVariable("x", 33.0);
+        context.addModule(builder.build());
+        ExpressionCache cache = new ExpressionCache(4);
+        Expression exact = cache.compile("sin(x)", context);
+        Expression fast = cache.compile("sin(x)", context, new CompileOptions().withPrecision(CompileOptions.Precision.FAST));
+        assertNotSame(exact, fast);
+        assertEquals(Math.sin(Math.toRadians(33.0)), exact.evaluate());
+        assertEquals(FastMath.sinDegrees(33.0), fast.evaluate());
+        assertSame(exact, cache.compile("sin(x)", context));
+    }
+
+    private static void assertWithin(double expected, double actual, double tolerance, String function, double argument) {
+        assertTrue(Math.abs(expected - actual) <= tolerance,
+                () -> function + "(" + argument + ") was " + actual + ", expected " + expected + " within " + tolerance);
+    }
+}
@@ -0,0 +1,81 @@
+package celestialexpressions;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Lazy functions and the boolean operators must never evaluate the branch that is not taken, on any backend.
+ */
+class LazyEvaluationTest {
+    private final int[] calls = new int[1];
+    private ExpressionContext context;
+    private TrackedVariable condition;
+
+    @BeforeEach
+    void createContext() {
+        this.context = new ExpressionContext();
+        ModuleBuilder builder = new ModuleBuilder("host");
+        this.condition = builder.addTrackedVariable("c", 0.0);
+        // Impure, so that calls with constant arguments are not folded away at compile time.
+        builder.addFunction("probe", Function.unary(x -> {
+            this.calls[0]++;
+            return x;
+        }, false));
+        this.context.addModule(builder.build());
+    }
+
+    private void assertCalls(String source, double c, double expected, int calls) {
+        this.condition.set(c);
+        for (CompileOptions.Backend backend : CompileOptions.Backend.values()) {
+            Expression expression = ExpressionCompiler.compile(source, this.context, new CompileOptions().withBackend(backend));
+            this.calls[0] = 0;
+            assertEquals(expected, expression.evaluate(), source + " on " + backend);
+            assertEquals(calls, this.calls[0], "Calls to probe in " + source + " on " + backend);
+        }
+    }
+
+    @Test
+    void ifElseEvaluatesOneBranch() {
+        this.assertCalls("ifElse(c, probe(1), probe(2))", 1.0, 1.0, 1);
+        this.assertCalls("ifElse(c, probe(1), probe(2))", 0.0, 2.0, 1);
+        this.assertCalls("ifElse(c, 5, probe(2))", 1.0, 5.0, 0);
+        this.assertCalls("ifElse(c, probe(1), 5)", 0.0, 5.0, 0);
+    }
+
+    @Test
+    void operatorsShortCircuit() {
+        this.assertCalls("c = 1 & probe(1) = 1", 0.0, 0.0, 0);
+        this.assertCalls("c = 1 & probe(1) = 1", 1.0, 1.0, 1);
+        this.assertCalls("c = 1 | probe(1) = 1", 1.0, 1.0, 0);
+        this.assertCalls("c = 1 | probe(1) = 1", 0.0, 1.0, 1);
+    }
+
+    @Test
+    void andOrStopAtTheFirstDecidingArgument() {
+        this.assertCalls("and(c, probe(1), probe(1))", 0.0, 0.0, 0);
+        this.assertCalls("and(c, probe(0), probe(1))", 1.0, 0.0, 1);
+        this.assertCalls("or(c, probe(1), probe(1))", 1.0, 1.0, 0);
+        this.assertCalls("or(c, probe(1), probe(1))", 0.0, 1.0, 1);
+    }
+
+    @Test
+    void selectEvaluatesOnlyTheChosenArgument() {
+        this.assertCalls("select(c, probe(10), probe(20), probe(30))", 1.0, 20.0, 1);
+        this.assertCalls("select(c, probe(10), probe(20), probe(30))", 2.9, 30.0, 1);
+        this.assertCalls("select(c, probe(10), probe(20), probe(30))", 3.0, 0.0, 0);
+        this.assertCalls("select(c, probe(10), probe(20), probe(30))", -1.0, 0.0, 0);
+    }
+
+    @Test
+    void batchEvaluationSkipsUntakenBranches() {
+        Expression expression = ExpressionCompiler.compile("ifElse(c > 0, probe(c), 0 - c)", this.context);
+        double[] column = {-2.0, 1.0, -3.0, 4.0};
+        double[] out = new double[column.length];
+        this.calls[0] = 0;
+        BatchEvaluator.evaluate(expression, new BatchEvaluator.Bindings().bind("c", column), out, column.length);
+        assertEquals(2, this.calls[0]);
+        for (int i = 0; i < column.length; i++) assertEquals(Math.abs(column[i]), out[i]);
+    }
+}
@@ -0,0 +1,46 @@
+package celestialexpressions;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * The noise module must give the values of {@link Noise} on every backend and in batches, without allocating per call.
+ */
+class NoiseTest {
+    private static final String SOURCE = "noise(x, y) + noise(x, y, x * y) + fbm(x, y, x + y, 4) + fbm(x, y, 3) + worley(x, y, y)";
+
+    private static double expected(Noise noise, double x, double y) {
+        return noise.noise(x, y) + noise.noise(x, y, x * y) + noise.fbm(x, y, x + y, 4) + noise.fbm(x, y, 3) + noise.worley(x, y, y);
+    }
+
+    @Test
+    void everyBackendMatchesTheTables() {
+        ExpressionContext context = new ExpressionContext();
+        context.addModule(Noise.createModule(7L));
+        Noise noise = new Noise(7L);
+        double[] xs = new double[200];
+        double[] ys = new double[200];
+        for (int i = 0; i < xs.length; i++) {
+            xs[i] = i * 0.37 - 10.0;
+            ys[i] = i * 1.13 - 20.0;
+        }
+        for (CompileOptions.Backend backend : CompileOptions.Backend.values()) {
+            Expression expression = ExpressionCompiler.compile(SOURCE, context, new CompileOptions().withBackend(backend), "x", "y");
+            double[] out = new double[xs.length];
+            BatchEvaluator.evaluate(expression, new BatchEvaluator.Bindings().bind("x", xs).bind("y", ys), out, xs.length);
+            for (int i = 0; i < xs.length; i++) {
+                double expected = expected(noise, xs[i], ys[i]);
+                assertEquals(expected, expression.evaluate(new double[] {xs[i], ys[i]}), backend.name());
+                assertEquals(expected, out[i], "Batch on " + backend);
+            }
+        }
+    }
+
+    @Test
+    void callsDoNotAllocate() {
+        ExpressionContext context = new ExpressionContext();
+        context.addModule(Noise.createModule(7L));
+        EvaluationTest.assertNoAllocation(context, "noise(x, x, x) + worley(x, x, x) + fbm(x, x, 3) + fbm(x, x, x, 4)");
+    }
+}
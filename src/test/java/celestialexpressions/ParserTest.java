@@ -0,0 +1,137 @@
+package celestialexpressions;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Pins the trees the parser builds. The expected trees were recorded from the four-pass tree builder the parser
+ * replaced, except where that builder dropped operands.
+ */
+class ParserTest {
+    private static final String[][] BASELINE = {
+            // Precedence, from loosest to tightest: comparison and logic, + and -, * and /, ^, unary minus.
+            {"a + b * c", "Add(a, Mul(b, c))"},
+            {"a * b + c", "Add(Mul(a, b), c)"},
+            {"a - b / c", "Sub(a, Div(b, c))"},
+            {"a + b ^ c * d", "Add(a, Mul(Pow(b, c), d))"},
+            {"a * b ^ c", "Mul(a, Pow(b, c))"},
+            {"a * (b + c) ^ d", "Mul(a, Pow(Add(b, c), d))"},
+            {"a+b*c-d/a^b", "Sub(Add(a, Mul(b, c)), Div(d, Pow(a, b)))"},
+            {"a > b + c", "Gtr(a, Add(b, c))"},
+            // Every binary operator is left associative, ^ included.
+            {"a ^ b ^ c", "Pow(Pow(a, b), c)"},
+            {"a - b - c", "Sub(Sub(a, b), c)"},
+            {"a / b / c", "Div(Div(a, b), c)"},
+            {"a - b + c", "Add(Sub(a, b), c)"},
+            {"a + b - c", "Sub(Add(a, b), c)"},
+            // Unary minus binds tighter than ^.
+            {"-a", "Negate(a)"},
+            {"-a ^ b", "Pow(Negate(a), b)"},
+            {"-a * b", "Mul(Negate(a), b)"},
+            {"a * -b", "Mul(a, Negate(b))"},
+            {"-a + b", "Add(Negate(a), b)"},
+            {"a ^ -b", "Pow(a, Negate(b))"},
+            {"a - -b", "Sub(a, Negate(b))"},
+            {"-a - -b * c", "Sub(Negate(a), Mul(Negate(b), c))"},
+            {"-(a + b)", "Negate(Add(a, b))"},
+            {"-max(a, b)", "Negate(max(a, b))"},
+            // Comparison and logic operators share one level, so chains group from the left.
+            {"a & b | c", "Or(And(a, b), c)"},
+            {"a | b & c", "And(Or(a, b), c)"},
+            {"a = b > c", "Gtr(Eq(a, b), c)"},
+            {"a < b < c", "Lss(Lss(a, b), c)"},
+            {"a > b = c", "Eq(Gtr(a, b), c)"},
+            {"a < b & b < c", "Lss(And(Lss(a, b), b), c)"},
+            {"a = b | c > d & a", "And(Gtr(Or(Eq(a, b), c), d), a)"},
+            // Functions, grouping and implicit multiplication.
+            {"max(a, b + c, -d)", "max(a, Add(b, c), Negate(d))"},
+            {"max(min(a, b), -c ^ 2)", "max(min(a, b), Pow(Negate(c), 2.0))"},
+            {"sin(a) ^ 2", "Pow(sin(a), 2.0)"},
+            {"ifElse(a > b, a, b) * 2", "Mul(ifElse(Gtr(a, b), a, b), 2.0)"},
+            {"2a", "Mul(2.0, a)"},
+            {"2(a + b)", "Mul(2.0, Add(a, b))"},
+            {"(a + b)(c)", "Mul(Add(a, b), c)"},
+            {"a , b", "Mul(a, b)"},
+            {"a + (b)", "Add(a, b)"},
+            {"((a))", "a"}
+    };
+    // The old builder gave Negate(a), Negate(b) and Negate(a), losing a factor or a negation.
+    private static final String[][] CHANGED = {
+            {"-2a", "Negate(Mul(2.0, a))"},
+            {"(-a)b", "Mul(Negate(a), b)"},
+            {"--a", "Negate(Negate(a))"}
+    };
+    private static final String[][] MALFORMED = {
+            {"", "Expression must have a value."},
+            {"1 +", "Expression must have a value."},
+            {"max()", "Expression must have a value."},
+            {"(a + b", "Grouping symbols are not balanced."},
+            {"a + b)", "Grouping symbols are not balanced."},
+            {"max(a,", "Grouping symbols are not balanced."},
+            {"* a", "Operator \"*\" is missing its left-hand side."},
+            {"a +* b", "Operator \"*\" is missing its left-hand side."}
+    };
+
+    private ExpressionContext context;
+
+    @BeforeEach
+    void createContext() {
+        this.context = new ExpressionContext();
+        ModuleBuilder builder = new ModuleBuilder("host");
+        builder.addTrackedVariable("a", 2.0);
+        builder.addTrackedVariable("b", 3.0);
+        builder.addTrackedVariable("c", 4.0);
+        builder.addTrackedVariable("d", 5.0);
+        this.context.addModule(builder.build());
+    }
+
+    private static String shape(IExpression<?> node) {
+        if (node instanceof Expression.BinaryOperator) {
+            Expression.BinaryOperator operator = (Expression.BinaryOperator) node;
+            return node.getClass().getSimpleName() + "(" + shape(operator.getLHS()) + ", " + shape(operator.getRHS()) + ")";
+        }
+        if (node instanceof Expression.UnaryOperator) {
+            return node.getClass().getSimpleName() + "(" + shape(((Expression.UnaryOperator) node).getExpression()) + ")";
+        }
+        if (node instanceof Expression.Fun) {
+            Expression.Fun function = (Expression.Fun) node;
+            StringBuilder out = new StringBuilder(function.getName()).append('(');
+            for (int i = 0; i < function.getParams().size(); i++) {
+                if (i > 0) out.append(", ");
+                out.append(shape(function.getParams().get(i)));
+            }
+            return out.append(')').toString();
+        }
+        return node.toString();
+    }
+
+    // Parses without the optimizer, which would otherwise rewrite the tree.
+    private String parse(String source) {
+        return shape(ExpressionParser.parse(ExpressionTokenizer.tokenize(source), this.context));
+    }
+
+    @Test
+    void treesMatchTheOldBuilder() {
+        for (String[] entry : BASELINE) assertEquals(entry[1], this.parse(entry[0]), entry[0]);
+    }
+
+    @Test
+    void negationKeepsEveryOperand() {
+        for (String[] entry : CHANGED) assertEquals(entry[1], this.parse(entry[0]), entry[0]);
+    }
+
+    @Test
+    void malformedInputFailsToCompile() {
+        for (String[] entry : MALFORMED) {
+            ExpressionCompiler.InvalidExpressionException exception = assertThrows(ExpressionCompiler.InvalidExpressionException.class,
+                    () -> ExpressionCompiler.compile(entry[0], this.context), entry[0]);
+            assertEquals(entry[1], exception.getMessage(), entry[0]);
+        }
+        assertThrows(VariableList.NoSuchVariableException.class, () -> ExpressionCompiler.compile("unknown + 1", this.context));
+        assertThrows(FunctionList.NoSuchFunctionException.class, () -> ExpressionCompiler.compile("nofun(1)", this.context));
+        assertThrows(Token.ParsingException.class, () -> ExpressionCompiler.compile("1..2", this.context));
+    }
+}
@@ -0,0 +1,68 @@
+package celestialexpressions;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.DoubleBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Batch and series evaluation must bind their columns through every wrapper an expression can come in.
+ */
+class SeriesEvaluationTest {
+    private static final String SOURCE = "t * 2 + sin(t)";
+
+    private ExpressionContext context;
+
+    @BeforeEach
+    void createContext() {
+        this.context = new ExpressionContext();
+        ModuleBuilder builder = new ModuleBuilder("host");
+        builder.addTrackedVariable("t", 0.3);
+        this.context.addModule(builder.build());
+    }
+
+    private static double expected(double t) {
+        return t * 2 + Math.sin(Math.toRadians(t));
+    }
+
+    private Map<String, Expression> wrapped() {
+        Map<String, Expression> expressions = new LinkedHashMap<>();
+        for (CompileOptions.Backend backend : CompileOptions.Backend.values()) {
+            CompileOptions options = new CompileOptions().withBackend(backend);
+            expressions.put(backend.name(), ExpressionCompiler.compile(SOURCE, this.context, options));
+            expressions.put("incremental " + backend, IncrementalExpression.of(ExpressionCompiler.compile(SOURCE, this.context, options)));
+            expressions.put("profiled " + backend, ExpressionCompiler.compile(SOURCE, this.context, options.withProfiler(new EvaluationProfiler())));
+        }
+        Map<String, Expression> members = new LinkedHashMap<>();
+        members.put("a", ExpressionCompiler.compile(SOURCE, this.context));
+        members.put("b", ExpressionCompiler.compile("t * 2 - sin(t)", this.context));
+        expressions.put("grouped", ExpressionGroup.of(members).get("a"));
+        return expressions;
+    }
+
+    @Test
+    void batchesBindColumnsThroughWrappers() {
+        double[] column = {1.0, 2.0, 3.0, -45.0};
+        for (Map.Entry<String, Expression> entry : this.wrapped().entrySet()) {
+            double[] out = new double[column.length];
+            BatchEvaluator.evaluate(entry.getValue(), new BatchEvaluator.Bindings().bind("t", column), out, column.length);
+            for (int i = 0; i < column.length; i++) assertEquals(expected(column[i]), out[i], entry.getKey());
+        }
+    }
+
+    @Test
+    void seriesDriveTheVariableThroughWrappers() {
+        for (Map.Entry<String, Expression> entry : this.wrapped().entrySet()) {
+            SeriesEvaluator series = new SeriesEvaluator(entry.getValue(), "t");
+            assertTrue(series.isParallelizable(), entry.getKey());
+            DoubleBuffer out = DoubleBuffer.allocate(3000);
+            series.evaluate(-10.0, 0.25, 3000, out);
+            for (int i = 0; i < 3000; i++) assertEquals(expected(-10.0 + i * 0.25), out.get(i), entry.getKey());
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package celestialexpressions;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * The single-pass tokenizer must give the same tokens as the regex-based passes it replaced.
+ */
+@SuppressWarnings("deprecation")
+class TokenizerTest {
+    private static final String[] SOURCES = {
+            "a + b * 2",
+            "a ^ b ^ c - d - e / f",
+            "a > b & b < c | a = b",
+            "-a ^ 2 + b",
+            "a - -b",
+            "a--b",
+            "2 * -(a + b)",
+            "-(-a)",
+            "(-1)",
+            "abs(-x)*-2",
+            "max(a, -b, 3)",
+            "ifElse(a > b, 1, -1)",
+            "random()",
+            "a(b(c(d)))",
+            "x1 + y2(3)",
+            "str(\"hello world\", 'a b')",
+            "f(\"x,y(\", a)",
+            "\"esc\\\"aped\"",
+            "  a\t+\nb  ",
+            "#a # + b",
+            "sin ( a )",
+            "lo cal + 1",
+            "0.5 + .25 + 3.",
+            "1 2.5",
+            "1.5e3",
+            "2.5E-3 * a",
+            "longName_with_underscore * 2"
+    };
+    // There are no qualified names; both tokenizers reject them.
+    private static final String[] MALFORMED = {"std.pi", "module.sub.var + 1", "1.2.3"};
+
+    private static ArrayList<Token> legacy(String source) {
+        return ExpressionTokenizer.identifyTokens(ExpressionTokenizer.splitTokens(ExpressionTokenizer.removeIrrelevantChars(source)));
+    }
+
+    @Test
+    void singlePassMatchesTheRegexPasses() {
+        for (String source : SOURCES) {
+            assertEquals(legacy(source).toString(), ExpressionTokenizer.tokenize(source).toString(), source);
+            assertEquals(ExpressionTokenizer.tokenize(source).toString(), ExpressionTokenizer.tokenize(ExpressionTokenizer.removeIrrelevantChars(source)).toString(), source);
+        }
+    }
+
+    @Test
+    void bothRejectMalformedNames() {
+        for (String source : MALFORMED) {
+            assertThrows(Token.ParsingException.class, () -> ExpressionTokenizer.tokenize(source), source);
+            assertThrows(Token.ParsingException.class, () -> legacy(source), source);
+        }
+    }
+}